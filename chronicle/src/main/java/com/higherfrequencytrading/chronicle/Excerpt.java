@@ -22,6 +22,7 @@ import java.nio.ByteOrder;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * An extracted record within a Chronicle.  This record refers to one entry.
@@ -50,6 +51,17 @@ public interface Excerpt extends RandomDataInput, RandomDataOutput, ByteStringAp
      */
     boolean nextIndex();
 
+    /**
+     * Set the index to the next index, waiting with the WaitStrategy between polls until it has been written or the
+     * timeout has passed.  A short timeout lets the caller do other work such as heartbeats, or check it has been closed.
+     *
+     * @param waitStrategy how to wait between polls.
+     * @param timeout      the longest time to wait.
+     * @param unit         of the timeout.
+     * @return true if the index was set to a valid entry, false if it timed out.
+     */
+    boolean nextIndex(WaitStrategy waitStrategy, long timeout, TimeUnit unit);
+
     /**
      * Attempt to set the index to this number.  The method is re-tryable as another thread or process could be writing to this Chronicle.
      *
@@ -59,6 +71,35 @@ public interface Excerpt extends RandomDataInput, RandomDataOutput, ByteStringAp
      */
     boolean index(long index) throws IndexOutOfBoundsException;
 
+    /**
+     * Move to the first excerpt which might have been added at or after a time, using the Chronicle's time index.  This
+     * can be up to one interval of the time index earlier, so readers which need an exact time check the times in their
+     * excerpts from here.  Without a time index, this is the first excerpt.
+     *
+     * @param timeMillis as from System.currentTimeMillis()
+     * @return true if the index could be set to a valid entry, otherwise the next entry is the first after the time.
+     */
+    boolean seekToTime(long timeMillis);
+
+    /**
+     * Move to the first excerpt with a time at or after a time.  This starts from seekToTime(timeMillis) and reads
+     * forward, so it scans at most one interval of the time index if the times are when the excerpts were added.
+     *
+     * @param timeMillis as from System.currentTimeMillis()
+     * @param extractor  reads the time of an excerpt.
+     * @return true if the index was set to an excerpt at or after the time, otherwise the next entry is the first after
+     *         the time.
+     */
+    boolean seekToTime(long timeMillis, TimeExtractor extractor);
+
+    /**
+     * Load the pages of the index and data ahead of this excerpt in a background thread as it reads, so a reader
+     * catching up doesn't take a page fault on every page it reads.
+     *
+     * @param bytes of each file to load ahead of the excerpt being read, or 0 to stop reading ahead.
+     */
+    void readAhead(int bytes);
+
     /**
      * @return the index of a valid entry or -1 if the index has never been set.
      */
@@ -99,6 +140,25 @@ public interface Excerpt extends RandomDataInput, RandomDataOutput, ByteStringAp
      */
     void startExcerpt(int capacity);
 
+    /**
+     * Make sure there is room to write another capacity bytes.  When the Chronicle grows excerpts, an excerpt being
+     * written which has run out of space is moved to a new data segment, otherwise this does nothing.
+     *
+     * @param capacity in bytes needed after the position.
+     */
+    void ensureCapacity(int capacity);
+
+    /**
+     * Start a batch of excerpts.  Excerpts finished in a batch are hidden from readers until finishBatch() publishes
+     * them all with one ordered write, rather than one per excerpt.
+     */
+    void startBatch();
+
+    /**
+     * Publish the excerpts finished since startBatch() to readers.
+     */
+    void finishBatch();
+
     /**
      * Finish a record.  The record is not available until this is called.
      * <p/>
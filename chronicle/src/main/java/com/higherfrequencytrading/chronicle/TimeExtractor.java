@@ -0,0 +1,30 @@
+/*
+ * Copyright 2013 Peter Lawrey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.higherfrequencytrading.chronicle;
+
+/**
+ * Reads the time an excerpt is for, so seekToTime() can find the first excerpt at or after a time exactly.
+ *
+ * @author peter.lawrey
+ */
+public interface TimeExtractor {
+    /**
+     * @param excerpt positioned at the start of an excerpt.
+     * @return the time of the excerpt in milliseconds.
+     */
+    long timeMillis(Excerpt excerpt);
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2013 Peter Lawrey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.higherfrequencytrading.chronicle;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * @author peter.lawrey
+ */
+public enum WaitStrategies implements WaitStrategy {
+    /**
+     * Poll continuously for the lowest latency.
+     */
+    BUSY_SPIN {
+        @Override
+        public void idle(int count) {
+        }
+    },
+    /**
+     * Spin for a short while, then yield to other threads between polls.
+     */
+    SPIN_YIELD {
+        @Override
+        public void idle(int count) {
+            if (count >= SPINS)
+                Thread.yield();
+        }
+    },
+    /**
+     * Spin, then yield, then park for longer and longer up to a millisecond between polls.
+     */
+    SPIN_PARK {
+        @Override
+        public void idle(int count) {
+            DEFAULT_SPIN_PARK.idle(count);
+        }
+    };
+
+    static final int SPINS = 100;
+    static final WaitStrategy DEFAULT_SPIN_PARK = spinThenPark(SPINS, SPINS, 1000 * 1000);
+
+    /**
+     * As the index and data are memory mapped, this sees excerpts written by other processes as well.
+     *
+     * @param spins        polls before yielding.
+     * @param yields       polls which yield before parking.
+     * @param maxParkNanos the longest time to park, starting from one microsecond and doubling.
+     * @return a wait strategy which backs off.
+     */
+    public static WaitStrategy spinThenPark(int spins, int yields, long maxParkNanos) {
+        return new SpinParkWaitStrategy(spins, yields, maxParkNanos);
+    }
+
+    static class SpinParkWaitStrategy implements WaitStrategy {
+        private final int spins;
+        private final int yields;
+        private final long maxParkNanos;
+
+        SpinParkWaitStrategy(int spins, int yields, long maxParkNanos) {
+            this.spins = spins;
+            this.yields = yields;
+            this.maxParkNanos = maxParkNanos;
+        }
+
+        @Override
+        public void idle(int count) {
+            if (count < spins)
+                return;
+            if (count < spins + yields) {
+                Thread.yield();
+                return;
+            }
+            int shift = Math.min(count - spins - yields, 20);
+            LockSupport.parkNanos(Math.min(1000L << shift, maxParkNanos));
+        }
+    }
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2013 Peter Lawrey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.higherfrequencytrading.chronicle;
+
+/**
+ * How a reader waits when it polls a Chronicle and there is no new excerpt.  Spinning gives the lowest latency and
+ * uses a whole CPU, parking frees the CPU at the cost of latency.  IndexedChronicle.futexWaitStrategy() sleeps until
+ * the appender, in any process, wakes it.
+ *
+ * @author peter.lawrey
+ */
+public interface WaitStrategy {
+    /**
+     * Called each time a reader finds nothing new.
+     *
+     * @param count the number of polls in a row which found nothing, starting from 0.
+     */
+    void idle(int count);
+}
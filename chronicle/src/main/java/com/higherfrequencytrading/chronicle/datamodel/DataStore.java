@@ -19,6 +19,8 @@ package com.higherfrequencytrading.chronicle.datamodel;
 import com.higherfrequencytrading.chronicle.Chronicle;
 import com.higherfrequencytrading.chronicle.Excerpt;
 import com.higherfrequencytrading.chronicle.ExcerptMarshallable;
+import com.higherfrequencytrading.chronicle.WaitStrategies;
+import com.higherfrequencytrading.chronicle.WaitStrategy;
 import com.higherfrequencytrading.chronicle.tools.ChronicleTools;
 
 import java.io.Closeable;
@@ -31,6 +33,7 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 /**
@@ -46,6 +49,7 @@ public class DataStore implements Closeable {
     protected Wrapper[] wrappersArray = {};
     private ExecutorService updater;
     private volatile boolean closed = false;
+    private WaitStrategy waitStrategy = WaitStrategies.BUSY_SPIN;
 
     public DataStore(final Chronicle chronicle, ModelMode mode) {
         this.chronicle = chronicle;
@@ -138,13 +142,30 @@ public class DataStore implements Closeable {
     }
 
     public void startAtEnd() {
-        start(chronicle.size() - 1);
+        // the index of the last excerpt, size() is a count which can differ if the indexes are not contiguous.
+        Excerpt excerpt = chronicle.createExcerpt();
+        start(excerpt, excerpt.size() - 1);
+    }
+
+    /**
+     * @param waitStrategy how the READ_ONLY updater waits for new excerpts, BUSY_SPIN by default.
+     */
+    public void setWaitStrategy(WaitStrategy waitStrategy) {
+        this.waitStrategy = waitStrategy;
+    }
+
+    public WaitStrategy getWaitStrategy() {
+        return waitStrategy;
     }
 
     public void start(final long lastEvent) {
+        start(chronicle.createExcerpt(), lastEvent);
+    }
+
+    private void start(final Excerpt excerpt, final long lastEvent) {
+        this.excerpt = excerpt;
         switch (mode) {
             case MASTER:
-                excerpt = chronicle.createExcerpt();
                 long size = excerpt.size();
                 while (excerpt.index() < size && excerpt.nextIndex()) {
                     processNextEvent(excerpt.index() <= lastEvent);
@@ -160,18 +181,18 @@ public class DataStore implements Closeable {
                 updater.submit(new Runnable() {
                     @Override
                     public void run() {
-                        excerpt = chronicle.createExcerpt();
                         while (!closed) {
                             boolean found = excerpt.nextIndex();
-                            if (found) {
-                                processNextEvent(excerpt.index() <= lastEvent);
-
-                            } else {
+                            if (!found) {
                                 for (Wrapper wrapper : wrappersArray) {
                                     wrapper.notifyOff(false);
                                     wrapper.inSync();
                                 }
+                                // wake up now and again to check for close().
+                                found = excerpt.nextIndex(waitStrategy, 100, TimeUnit.MILLISECONDS);
                             }
+                            if (found)
+                                processNextEvent(excerpt.index() <= lastEvent);
                         }
                     }
                 });
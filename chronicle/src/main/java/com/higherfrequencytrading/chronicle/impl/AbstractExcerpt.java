@@ -20,6 +20,8 @@ import com.higherfrequencytrading.chronicle.ByteStringAppender;
 import com.higherfrequencytrading.chronicle.EnumeratedMarshaller;
 import com.higherfrequencytrading.chronicle.Excerpt;
 import com.higherfrequencytrading.chronicle.StopCharTester;
+import com.higherfrequencytrading.chronicle.TimeExtractor;
+import com.higherfrequencytrading.chronicle.WaitStrategy;
 import com.higherfrequencytrading.chronicle.math.MutableDecimal;
 
 import java.io.*;
@@ -29,7 +31,9 @@ import java.nio.MappedByteBuffer;
 import java.nio.charset.Charset;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
 
 /**
  * @author peter.lawrey
@@ -51,15 +55,25 @@ public abstract class AbstractExcerpt implements Excerpt {
 
     protected MappedByteBuffer buffer;
     private boolean forWrite = false;
+    // the first index of an unfinished batch, or -1
+    private long batchIndex = -1;
 
     private static final byte[] MIN_VALUE_TEXT = ("" + Long.MIN_VALUE).getBytes();
     private static final byte[] Infinity = "Infinity".getBytes();
     private static final byte[] NaN = "NaN".getBytes();
     private static final long MAX_VALUE_DIVIDE_5 = Long.MAX_VALUE / 5;
     // extra 1 for decimal place.
+    // a CRC32 then the length it covers, as an excerpt can be padded after it is finished.
+    static final int CHECKSUM_SIZE = 8;
     static final int MAX_NUMBER_LENGTH = 1 + (int) Math.ceil(Math.log10(Long.MAX_VALUE));
 
     private final byte[] numberBuffer = new byte[MAX_NUMBER_LENGTH];
+    private CRC32 checksum = null;
+    private byte[] checksumBytes = null;
+    private boolean largeBuffer = false;
+    private int readAhead = 0;
+    // where the last read ahead started, or -1
+    private long readAheadPosition = -1;
     private ExcerptInputStream inputStream = null;
     private ExcerptOutputStream outputStream = null;
 
@@ -77,12 +91,34 @@ public abstract class AbstractExcerpt implements Excerpt {
         return index(index() + 1);
     }
 
+    @Override
+    public boolean nextIndex(WaitStrategy waitStrategy, long timeout, TimeUnit unit) {
+        return nextIndex(this, waitStrategy, unit.toNanos(timeout));
+    }
+
+    // shared with WrappedExcerpt so it polls with the nextIndex() of the wrapper.
+    static boolean nextIndex(Excerpt excerpt, WaitStrategy waitStrategy, long timeoutNanos) {
+        if (excerpt.nextIndex())
+            return true;
+        long end = System.nanoTime() + timeoutNanos;
+        for (int count = 0; ; ) {
+            waitStrategy.idle(count);
+            if (excerpt.nextIndex())
+                return true;
+            if (System.nanoTime() - end >= 0)
+                return false;
+            if (count < Integer.MAX_VALUE)
+                count++;
+        }
+    }
+
     @Override
     public boolean hasNextIndex() {
         readMemoryBarrier();
         long nextIndex = index + 1;
         long endPosition = chronicle.getIndexData(nextIndex + 1);
-        return endPosition != 0;
+        // zero or UNCOMMITTED
+        return endPosition > 0;
     }
 
     @Override
@@ -91,9 +127,9 @@ public abstract class AbstractExcerpt implements Excerpt {
 
         readMemoryBarrier();
         long endPosition = chronicle.getIndexData(index + 1);
-        if (endPosition == 0) {
+        if (endPosition <= 0) {
             capacity = 0;
-            buffer = null;
+            releaseBuffer();
 //            System.out.println("ep");
             // rewind?
             if (index == -1) {
@@ -103,23 +139,79 @@ public abstract class AbstractExcerpt implements Excerpt {
             }
             return false;
         }
-        long startPosition = chronicle.getIndexData(index);
+        long startPosition = chronicle.getIndexData(index) & ~DirectChronicle.UNCOMMITTED;
+        // only the first excerpt starts at 0, otherwise it was freed by IndexedChronicle.punchHolesBefore().
+        if (startPosition == 0 && index > 0) {
+            capacity = 0;
+            releaseBuffer();
+            return false;
+        }
+        if (readAhead > 0)
+            readAhead(index, startPosition);
+        boolean checksums = chronicle.checksums();
+        if (checksums)
+            startPosition += CHECKSUM_SIZE;
         capacity = (int) (endPosition - startPosition);
         assert capacity >= MIN_SIZE : "end=" + endPosition + ", start=" + startPosition;
         index0(index, startPosition, endPosition);
+        if (checksums) {
+            int length = readInt(-CHECKSUM_SIZE + 4);
+            if (length >= MIN_SIZE && length < capacity) {
+                capacity = length;
+                limit = start + length;
+            }
+            if (chronicle.checksumVerification() == ChecksumVerification.ALWAYS && !verifyChecksum())
+                throw new IllegalStateException("Checksum failed for excerpt " + index);
+        }
         // TODO Assumes the start of the record won't be all 0's
         // TODO Need to determine whether this is required as a safety check or not.
         long l = readLong(0);
         return l != 0L;
     }
 
+    @Override
+    public void readAhead(int bytes) {
+        readAhead = bytes;
+        readAheadPosition = -1;
+    }
+
+    private void readAhead(long index, long startPosition) {
+        // read ahead again once half way through the last read ahead, or after moving back.
+        if (readAheadPosition >= 0 && startPosition >= readAheadPosition && startPosition - readAheadPosition < readAhead / 2)
+            return;
+        readAheadPosition = startPosition;
+        chronicle.readAhead(index, startPosition, readAhead);
+    }
+
+    @Override
+    public boolean seekToTime(long timeMillis) {
+        // wind to just before it, so nextIndex() finds it when it is added.
+        return index(chronicle.firstIndexFor(timeMillis) - 1) && nextIndex();
+    }
+
+    @Override
+    public boolean seekToTime(long timeMillis, TimeExtractor extractor) {
+        if (!seekToTime(timeMillis))
+            return false;
+        // the time index can be up to one interval earlier.
+        while (extractor.timeMillis(this) < timeMillis) {
+            if (!nextIndex())
+                return false;
+        }
+        position(0);
+        return true;
+    }
+
     @Override
     public long size() {
         readMemoryBarrier();
         long size = this.size - 1;
+        // concurrent appenders keep track of the committed size.
+        if (chronicle.concurrentAppends())
+            size = Math.max(size, chronicle.size() - 1);
         do {
             size++;
-        } while (chronicle.getIndexData(size + 1) != 0);
+        } while (chronicle.getIndexData(size + 1) > 0);
         return this.size = size;
     }
 
@@ -130,12 +222,45 @@ public abstract class AbstractExcerpt implements Excerpt {
     @Override
     public void startExcerpt(int capacity) {
         this.capacity = capacity < MIN_SIZE ? MIN_SIZE : capacity;
-        long startPosition = chronicle.startExcerpt(capacity);
-        long endPosition = startPosition + capacity;
-        index0(chronicle.size(), startPosition, endPosition);
+        boolean checksums = chronicle.checksums();
+        // the checksum goes before the excerpt as the end of an excerpt can be moved by padding.
+        int prefix = checksums ? CHECKSUM_SIZE : 0;
+        if (chronicle.concurrentAppends()) {
+            long index = chronicle.claimExcerpt(prefix + this.capacity);
+            long startPosition = (chronicle.getIndexData(index) & ~DirectChronicle.UNCOMMITTED) + prefix;
+            index0(index, startPosition, startPosition + this.capacity);
+            forWrite = true;
+            return;
+        }
+        long startPosition = chronicle.startExcerpt(prefix + capacity) + prefix;
+        index0(chronicle.size(), startPosition, endPosition(startPosition, capacity));
         forWrite = true;
     }
 
+    private long endPosition(long startPosition, int capacity) {
+        long endPosition = startPosition + capacity;
+        if (!chronicle.autoGrowExcerpts())
+            return endPosition;
+        // nothing is written after the excerpt being appended, so it can use the rest of the segment.
+        long segmentEnd = startPosition - chronicle.positionInBuffer(startPosition) + chronicle.dataSegmentSize();
+        return Math.max(endPosition, segmentEnd);
+    }
+
+    @Override
+    public void ensureCapacity(int capacity) {
+        if (limit - position >= capacity || !forWrite || !chronicle.autoGrowExcerpts())
+            return;
+        // copy what has been written so far to a new start.
+        int length = (int) (position - start);
+        byte[] bytes = new byte[length];
+        position = start;
+        readFully(bytes);
+        int prefix = chronicle.checksums() ? CHECKSUM_SIZE : 0;
+        long startPosition = chronicle.startExcerpt(prefix + length + capacity) + prefix;
+        index0(index, startPosition, endPosition(startPosition, length + capacity));
+        write(bytes);
+    }
+
     private Thread lastThread = null;
 
     @SuppressWarnings("SameReturnValue")
@@ -153,16 +278,54 @@ public abstract class AbstractExcerpt implements Excerpt {
         assert chronicle.multiThreaded() || checkThread();
         long length = checkEndOfBuffer();
         if (forWrite) {
+            if (chronicle.checksums()) {
+                // a concurrent excerpt cannot be shrunk so the checksum covers all of it.
+                int checked = chronicle.concurrentAppends() ? capacity() : (int) length;
+                writeInt(-CHECKSUM_SIZE, checksum(checked));
+                writeInt(-CHECKSUM_SIZE + 4, checked);
+            }
             if (chronicle.synchronousMode())
                 buffer.force();
+            if (chronicle.concurrentAppends()) {
+                // the space after this excerpt may have been claimed already so it cannot be shrunk.
+                chronicle.commitExcerpt(index);
+                writeMemoryBarrier();
+                releaseBuffer();
+                return;
+            }
             final long endPosition = startPosition + length;
-            chronicle.setIndexData(index + 1, endPosition);
+            // flagging the first excerpt of a batch hides the whole batch from readers until it is finished.
+            long indexData = index == batchIndex ? endPosition | DirectChronicle.UNCOMMITTED : endPosition;
+            chronicle.setIndexData(index + 1, indexData);
             chronicle.incrementSize();
             capacity = (int) length;
             assert capacity >= MIN_SIZE : "len=" + length;
-            writeMemoryBarrier();
+            if (batchIndex < 0)
+                writeMemoryBarrier();
         }
-        buffer = null;
+        releaseBuffer();
+    }
+
+    @Override
+    public void startBatch() {
+        if (chronicle.concurrentAppends() || !chronicle.uncommittedEntries())
+            throw new IllegalStateException("Batches require an 8 byte index and no concurrent appends");
+        finishBatch();
+        batchIndex = chronicle.size();
+    }
+
+    @Override
+    public void finishBatch() {
+        long batchIndex = this.batchIndex;
+        if (batchIndex < 0)
+            return;
+        this.batchIndex = -1;
+        if (chronicle.size() <= batchIndex)
+            return;
+        // the rest of the batch must be visible before the first entry.
+        writeMemoryBarrier();
+        chronicle.setIndexData(batchIndex + 1, chronicle.getIndexData(batchIndex + 1) & ~DirectChronicle.UNCOMMITTED);
+        writeMemoryBarrier();
     }
 
     private long checkEndOfBuffer() {
@@ -178,6 +341,68 @@ public abstract class AbstractExcerpt implements Excerpt {
 
     protected abstract void index0(long index, long startPosition, long endPosition);
 
+    /**
+     * @return true if the checksum before the excerpt matches its contents, or the Chronicle has no checksums.
+     */
+    public boolean verifyChecksum() {
+        if (!chronicle.checksums())
+            return true;
+        int length = capacity();
+        return readInt(-CHECKSUM_SIZE + 4) == length && checksum(length) == readInt(-CHECKSUM_SIZE);
+    }
+
+    private int checksum(int length) {
+        if (checksum == null) {
+            checksum = new CRC32();
+            checksumBytes = new byte[256];
+        }
+        checksum.reset();
+        long position = this.position;
+        this.position = start;
+        for (int i = 0; i < length; i += checksumBytes.length) {
+            int len = Math.min(checksumBytes.length, length - i);
+            readFully(checksumBytes, 0, len);
+            checksum.update(checksumBytes, 0, len);
+        }
+        this.position = position;
+        return (int) checksum.getValue();
+    }
+
+    /**
+     * Acquire the buffer for an excerpt and release the previous one.
+     *
+     * @return the position of the excerpt in the buffer.
+     */
+    protected int acquireBuffer(long startPosition, long endPosition) {
+        int position = chronicle.positionInBuffer(startPosition);
+        long length = endPosition - startPosition;
+        if (chronicle.positionInBuffer(endPosition - 1) - position == length - 1) {
+            MappedByteBuffer buffer = chronicle.acquireDataBuffer(startPosition);
+            // release after acquiring in case it is the same segment.
+            releaseBuffer();
+            this.buffer = buffer;
+            return position;
+        }
+        // spans more than one data segment so it needs a mapping of its own.
+        releaseBuffer();
+        buffer = chronicle.mapDataBuffer(startPosition, (int) length);
+        largeBuffer = true;
+        return 0;
+    }
+
+    protected void releaseBuffer() {
+        MappedByteBuffer buffer = this.buffer;
+        if (buffer != null) {
+            this.buffer = null;
+            if (largeBuffer) {
+                largeBuffer = false;
+                MappedBuffers.unmap(buffer);
+            } else {
+                chronicle.releaseDataBuffer(buffer);
+            }
+        }
+    }
+
     private final AtomicBoolean barrier = new AtomicBoolean();
 
     private void writeMemoryBarrier() {
@@ -841,6 +1066,7 @@ public abstract class AbstractExcerpt implements Excerpt {
             }
         }
 
+        ensureCapacity(utflen + 5);
         if (utflen > remaining())
             throw new IllegalArgumentException(
                     "encoded string too long: " + utflen + " bytes, remaining=" + remaining());
@@ -1739,16 +1965,19 @@ public abstract class AbstractExcerpt implements Excerpt {
 
         @Override
         public void write(byte[] b) throws IOException {
+            ensureCapacity(b.length);
             AbstractExcerpt.this.write(b);
         }
 
         @Override
         public void write(byte[] b, int off, int len) throws IOException {
+            ensureCapacity(len);
             AbstractExcerpt.this.write(b, off, len);
         }
 
         @Override
         public void write(int b) throws IOException {
+            ensureCapacity(1);
             writeUnsignedByte(b);
         }
     }
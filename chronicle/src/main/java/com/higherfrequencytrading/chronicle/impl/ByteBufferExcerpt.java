@@ -28,10 +28,8 @@ public class ByteBufferExcerpt extends AbstractExcerpt {
         this.index = index;
         this.startPosition = startPosition;
 
-        buffer = chronicle.acquireDataBuffer(startPosition);
-
-        start = position = chronicle.positionInBuffer(startPosition);
-        limit = chronicle.positionInBuffer(endPosition - 1) + 1;
+        start = position = acquireBuffer(startPosition, endPosition);
+        limit = start + endPosition - startPosition;
 
         assert limit > start && position < limit && endPosition > startPosition;
     }
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2013 Peter Lawrey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.higherfrequencytrading.chronicle.impl;
+
+/**
+ * When the checksums of excerpts are checked, if the Chronicle has checksums.
+ *
+ * @author peter.lawrey
+ */
+public enum ChecksumVerification {
+    /**
+     * Checksums are written but only checked by calling verifyChecksum()
+     */
+    NONE,
+    /**
+     * Checked before an excerpt is sent to a sink.
+     */
+    REPLICATION,
+    /**
+     * Checked every time an excerpt is read.
+     */
+    ALWAYS
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2013 Peter Lawrey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.higherfrequencytrading.chronicle.impl;
+
+import com.higherfrequencytrading.chronicle.Chronicle;
+import com.higherfrequencytrading.chronicle.Excerpt;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Copy excerpts from one Chronicle to the end of another, e.g. to archive or filter a journal.
+ * <p/>
+ * A range of an IndexedChronicle is copied in bulk to another IndexedChronicle with the same data segment size and
+ * checksum setting, when neither aligns its excerpts.  The data is copied with FileChannel.transferTo() and the index
+ * entries are moved by the same amount, so no excerpt is read.  Otherwise, or when a filter selects the excerpts, each
+ * excerpt is copied in one pass.
+ *
+ * @author peter.lawrey
+ */
+public enum ChronicleCopier {
+    ;
+
+    public interface ExcerptFilter {
+        /**
+         * @param excerpt to check, positioned at the start.
+         * @return true to copy this excerpt.
+         */
+        boolean accept(Excerpt excerpt);
+    }
+
+    /**
+     * @param from      to copy from
+     * @param fromIndex the first excerpt to copy
+     * @param toIndex   the last excerpt to copy (exclusive), only excerpts already added are copied.
+     * @param to        to add the excerpts to.
+     * @return the number of excerpts copied.
+     */
+    public static long copy(Chronicle from, long fromIndex, long toIndex, Chronicle to) {
+        toIndex = Math.min(toIndex, from.size());
+        if (toIndex <= fromIndex)
+            return 0;
+        if (from instanceof IndexedChronicle && to instanceof IndexedChronicle) {
+            IndexedChronicle source = (IndexedChronicle) from;
+            IndexedChronicle target = (IndexedChronicle) to;
+            // the positions in a data segment are kept, so excerpts are only aligned if they were already.
+            if (source.dataSegmentSize() == target.dataSegmentSize() && source.checksums() == target.checksums()
+                    && source.excerptAlignment() == 1 && target.excerptAlignment() == 1
+                    && !target.concurrentAppends() && !target.readOnly())
+                return bulkCopy(source, fromIndex, toIndex, target);
+        }
+        return copy(from, fromIndex, toIndex, to, null);
+    }
+
+    /**
+     * @param from      to copy from
+     * @param fromIndex the first excerpt to copy
+     * @param toIndex   the last excerpt to copy (exclusive), only excerpts already added are copied.
+     * @param to        to add the excerpts to.
+     * @param filter    which selects the excerpts to copy, or null for all of them.
+     * @return the number of excerpts copied.
+     */
+    public static long copy(Chronicle from, long fromIndex, long toIndex, Chronicle to, ExcerptFilter filter) {
+        toIndex = Math.min(toIndex, from.size());
+        Excerpt in = from.createExcerpt();
+        Excerpt out = to.createExcerpt();
+        byte[] bytes = new byte[256];
+        long count = 0;
+        for (long i = fromIndex; i < toIndex; i++) {
+            if (!in.index(i))
+                continue;
+            if (filter != null) {
+                if (!filter.accept(in)) {
+                    in.finish();
+                    continue;
+                }
+                in.position(0);
+            }
+            int length = in.capacity();
+            if (bytes.length < length)
+                bytes = new byte[Math.max(length, bytes.length * 2)];
+            in.readFully(bytes, 0, length);
+            in.finish();
+            out.startExcerpt(length);
+            out.write(bytes, 0, length);
+            out.finish();
+            count++;
+        }
+        return count;
+    }
+
+    private static long bulkCopy(IndexedChronicle from, long fromIndex, long toIndex, IndexedChronicle to) {
+        if (fromIndex >= toIndex)
+            return 0;
+        long mask = from.dataSegmentSize() - 1;
+        long startPosition = from.getIndexData(fromIndex) & ~DirectChronicle.UNCOMMITTED;
+        long endPosition = from.getIndexData(toIndex) & ~DirectChronicle.UNCOMMITTED;
+        long size = to.size();
+        // the first index entry is always 0, so copy the first excerpt on its own if it can't start there.
+        if (size == 0 && (startPosition & mask) != 0)
+            return copy(from, fromIndex, fromIndex + 1, to, null) + bulkCopy(from, fromIndex + 1, toIndex, to);
+        // keep the same position in a data segment so no excerpt is moved across a segment boundary.
+        long position = to.getIndexData(size) & ~DirectChronicle.UNCOMMITTED;
+        long toPosition = (position & ~mask) | (startPosition & mask);
+        if (toPosition < position)
+            toPosition += mask + 1;
+
+        transfer(from.dataChannel(), startPosition, endPosition - startPosition, to.dataChannel(), toPosition);
+        // mapping a segment extends the file to the end of it, do the same so the last segment can be mapped read only.
+        extend(to.dataChannel(), (toPosition + endPosition - startPosition + mask) & ~mask);
+        // the data is copied before the index entries which point to it.
+        long delta = toPosition - startPosition;
+        to.setIndexData(size, (to.getIndexData(size) & DirectChronicle.UNCOMMITTED) | toPosition);
+        for (long i = fromIndex + 1; i <= toIndex; i++)
+            to.setIndexData(size + i - fromIndex, (from.getIndexData(i) & ~DirectChronicle.UNCOMMITTED) + delta);
+        to.excerptsCopied(toIndex - fromIndex);
+        return toIndex - fromIndex;
+    }
+
+    private static void transfer(FileChannel from, long position, long length, FileChannel to, long toPosition) {
+        try {
+            to.position(toPosition);
+            while (length > 0) {
+                long copied = from.transferTo(position, length, to);
+                if (copied <= 0)
+                    throw new IOException("Unable to copy past " + position);
+                position += copied;
+                length -= copied;
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void extend(FileChannel channel, long size) {
+        try {
+            if (channel.size() < size)
+                channel.write(ByteBuffer.wrap(new byte[1]), size - 1);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,326 @@
+/*
+ * Copyright 2013 Peter Lawrey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.higherfrequencytrading.chronicle.impl;
+
+import com.higherfrequencytrading.chronicle.Chronicle;
+import com.higherfrequencytrading.chronicle.Excerpt;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A persistent index from a key in each excerpt to the latest excerpt with that key, so it can be found without
+ * scanning the Chronicle.  The key is extracted by a KeyExtractor.  Only a 64-bit key is stored, so for text keys use
+ * a TextKeyExtractor which hashes the text.  Each text key has an entry of its own, and keys with the same hash are
+ * told apart by the text of the excerpts found.
+ * <p/>
+ * The index is an open addressing hash table in a memory mapped basePath.keys file, which is updated incrementally
+ * with the excerpts added since the last update.  It doubles in size when it is half full, and the new table is
+ * written after the old one in the same file, so the old table remains valid until the new one is complete.  The
+ * offset and capacity of the table are switched with a single store, and the space of the old tables is freed by
+ * punching a hole where the platform supports it.
+ * <p/>
+ * It is updated by one thread in one process at a time.
+ *
+ * @author peter.lawrey
+ */
+public class ChronicleKeyIndex implements Closeable {
+    public static final long NOT_FOUND = -1;
+
+    public interface KeyExtractor {
+        /**
+         * @param excerpt to extract the key from, positioned at the start.
+         * @return the key for this excerpt.
+         */
+        long key(Excerpt excerpt);
+    }
+
+    /**
+     * Extracts a text key, which is stored as its hash.
+     */
+    public abstract static class TextKeyExtractor implements KeyExtractor {
+        /**
+         * @param excerpt to extract the key from, positioned at the start.
+         * @return the text key for this excerpt.
+         */
+        public abstract CharSequence textKey(Excerpt excerpt);
+
+        @Override
+        public long key(Excerpt excerpt) {
+            return hash(textKey(excerpt));
+        }
+
+        /**
+         * @param key the text
+         * @return the hash stored for this key, hashOf(key) by default.
+         */
+        public long hash(CharSequence key) {
+            return hashOf(key);
+        }
+    }
+
+    private static final int HEADER_SIZE = 64;
+    // the capacity as a power of 2 in the top byte and the offset of the table in the rest.
+    private static final int HEADER_TABLE = 0;
+    private static final int HEADER_KEYS = 8;
+    private static final int HEADER_INDEXED = 16;
+    private static final int CAPACITY_SHIFT = 56;
+    private static final int ENTRY_SIZE = 16;
+    private static final int MIN_CAPACITY = 1 << 10;
+    // the largest table which can be mapped in one buffer.
+    private static final int MAX_CAPACITY = 1 << 26;
+
+    private final Excerpt excerpt;
+    // reads the text key of an excerpt already indexed.
+    private final Excerpt probe;
+    private final KeyExtractor extractor;
+    private final FileChannel channel;
+    private final MappedByteBuffer header;
+    private MappedByteBuffer table;
+    private long tableOffset;
+    private int capacity;
+    private long keys;
+    private long indexed;
+
+    public ChronicleKeyIndex(Chronicle chronicle, String basePath, KeyExtractor extractor) throws IOException {
+        this.excerpt = chronicle.createExcerpt();
+        this.probe = chronicle.createExcerpt();
+        this.extractor = extractor;
+        channel = new RandomAccessFile(basePath + ".keys", "rw").getChannel();
+        header = map(0, HEADER_SIZE);
+        long tableWord = header.getLong(HEADER_TABLE);
+        if (tableWord == 0) {
+            tableWord = tableWord(HEADER_SIZE, MIN_CAPACITY);
+            header.putLong(HEADER_TABLE, tableWord);
+        }
+        tableOffset = tableWord & ((1L << CAPACITY_SHIFT) - 1);
+        capacity = 1 << (tableWord >>> CAPACITY_SHIFT);
+        keys = header.getLong(HEADER_KEYS);
+        indexed = header.getLong(HEADER_INDEXED);
+        table = map(tableOffset, capacity * ENTRY_SIZE);
+    }
+
+    private static long tableWord(long tableOffset, int capacity) {
+        return ((long) Integer.numberOfTrailingZeros(capacity) << CAPACITY_SHIFT) | tableOffset;
+    }
+
+    /**
+     * Add the excerpts added to the Chronicle since the last update.
+     */
+    public synchronized void update() {
+        long indexed = this.indexed;
+        while (excerpt.index(indexed)) {
+            if (extractor instanceof TextKeyExtractor) {
+                TextKeyExtractor textExtractor = (TextKeyExtractor) extractor;
+                // copied as the extractor might reuse it for the text of the excerpts compared with.
+                String text = textExtractor.textKey(excerpt).toString();
+                excerpt.finish();
+                put(textExtractor.hash(text), text, indexed);
+            } else {
+                long key = extractor.key(excerpt);
+                excerpt.finish();
+                put(key, null, indexed);
+            }
+            indexed++;
+        }
+        if (indexed != this.indexed) {
+            header.putLong(HEADER_KEYS, keys);
+            header.putLong(HEADER_INDEXED, this.indexed = indexed);
+        }
+    }
+
+    /**
+     * @param key to look up
+     * @return the index of the latest excerpt with this key or NOT_FOUND.
+     */
+    public synchronized long latest(long key) {
+        update();
+        for (int slot = slot(key); ; slot = (slot + 1) & (capacity - 1)) {
+            int offset = slot * ENTRY_SIZE;
+            long index = table.getLong(offset + 8);
+            if (index == 0)
+                return NOT_FOUND;
+            if (table.getLong(offset) == key)
+                return index - 1;
+        }
+    }
+
+    /**
+     * If the KeyExtractor is a TextKeyExtractor, every entry with the same hash is checked until the text of its
+     * excerpt matches.  Otherwise keys with the same hashOf(key) are treated as the same key.
+     *
+     * @param key to look up
+     * @return the index of the latest excerpt with this key, or NOT_FOUND.
+     */
+    public synchronized long latest(CharSequence key) {
+        if (!(extractor instanceof TextKeyExtractor))
+            return latest(hashOf(key));
+        long hash = ((TextKeyExtractor) extractor).hash(key);
+        update();
+        for (int slot = slot(hash); ; slot = (slot + 1) & (capacity - 1)) {
+            int offset = slot * ENTRY_SIZE;
+            long index = table.getLong(offset + 8);
+            if (index == 0)
+                return NOT_FOUND;
+            if (table.getLong(offset) == hash && hasTextKey(index - 1, key))
+                return index - 1;
+        }
+    }
+
+    private boolean hasTextKey(long index, CharSequence key) {
+        if (!probe.index(index))
+            return false;
+        boolean found = contentEquals(((TextKeyExtractor) extractor).textKey(probe), key);
+        probe.finish();
+        return found;
+    }
+
+    private static boolean contentEquals(CharSequence cs, CharSequence cs2) {
+        if (cs.length() != cs2.length())
+            return false;
+        for (int i = 0; i < cs.length(); i++)
+            if (cs.charAt(i) != cs2.charAt(i))
+                return false;
+        return true;
+    }
+
+    /**
+     * @return the number of distinct keys.
+     */
+    public synchronized long keys() {
+        return keys;
+    }
+
+    /**
+     * @return the number of excerpts indexed.
+     */
+    public synchronized long indexed() {
+        return indexed;
+    }
+
+    /**
+     * A 64-bit hash of text keys.  Different keys with the same hash are treated as the same key, which is unlikely
+     * unless there are billions of keys.
+     *
+     * @param cs the text
+     * @return a hash of it.
+     */
+    public static long hashOf(CharSequence cs) {
+        // FNV-1a
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < cs.length(); i++) {
+            hash ^= cs.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    @Override
+    public synchronized void close() {
+        MappedBuffers.unmap(table);
+        MappedBuffers.unmap(header);
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * @param key   the key or hash of the text key
+     * @param text  the text key or null
+     * @param index of the excerpt
+     */
+    private void put(long key, String text, long index) {
+        if (keys >= capacity / 2) {
+            if (capacity < MAX_CAPACITY)
+                resize(capacity * 2);
+            else if (keys >= capacity - capacity / 4)
+                throw new IllegalStateException("Too many keys " + keys);
+        }
+        for (int slot = slot(key); ; slot = (slot + 1) & (capacity - 1)) {
+            int offset = slot * ENTRY_SIZE;
+            // 0 marks an empty slot.
+            long value = table.getLong(offset + 8);
+            if (value == 0) {
+                table.putLong(offset, key);
+                table.putLong(offset + 8, index + 1);
+                keys++;
+                return;
+            }
+            // a different text key with the same hash has an entry of its own.
+            if (table.getLong(offset) == key && (text == null || hasTextKey(value - 1, text))) {
+                table.putLong(offset + 8, index + 1);
+                return;
+            }
+        }
+    }
+
+    private static void insert(MappedByteBuffer table, int capacity, long key, long value) {
+        for (int slot = slot(key, capacity); ; slot = (slot + 1) & (capacity - 1)) {
+            int offset = slot * ENTRY_SIZE;
+            if (table.getLong(offset + 8) == 0) {
+                table.putLong(offset, key);
+                table.putLong(offset + 8, value);
+                return;
+            }
+        }
+    }
+
+    private void resize(int capacity2) {
+        long tableOffset2 = tableOffset + (long) capacity * ENTRY_SIZE;
+        MappedByteBuffer table2 = map(tableOffset2, capacity2 * ENTRY_SIZE);
+        for (int offset = 0; offset < capacity * ENTRY_SIZE; offset += ENTRY_SIZE) {
+            long value = table.getLong(offset + 8);
+            // every entry is a different key, even if some have the same hash.
+            if (value != 0)
+                insert(table2, capacity2, table.getLong(offset), value);
+        }
+        // switch to the new table once it is complete, even after a crash.
+        table2.force();
+        MappedBuffers.compareAndSwapLong(header, HEADER_TABLE, tableWord(tableOffset, capacity), tableWord(tableOffset2, capacity2));
+        header.force();
+        MappedBuffers.unmap(table);
+        table = table2;
+        tableOffset = tableOffset2;
+        capacity = capacity2;
+        // free the space of the old tables.
+        SparseFiles.punchHole(channel, HEADER_SIZE, tableOffset2 - HEADER_SIZE);
+    }
+
+    private int slot(long key) {
+        return slot(key, capacity);
+    }
+
+    private static int slot(long key, int capacity) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & (capacity - 1);
+    }
+
+    private MappedByteBuffer map(long position, int size) {
+        try {
+            MappedByteBuffer mbb = channel.map(FileChannel.MapMode.READ_WRITE, position, size);
+            mbb.order(ByteOrder.nativeOrder());
+            return mbb;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright 2013 Peter Lawrey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.higherfrequencytrading.chronicle.impl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Check the index and data files of an IndexedChronicle are consistent, e.g. after a crash, and truncate it to the
+ * last consistent excerpt.
+ * <p/>
+ * Every index entry from the firstIndex() is checked: each excerpt must end after it starts, within the data file, and
+ * be committed, and no entry can follow an unwritten one.  The index is split into ranges which are checked in parallel.  Reading the data
+ * of every excerpt would take much longer, so only the data of the last excerpts is checked against its checksum, if
+ * the Chronicle has checksums().  Truncating removes the timeIndex() entries of the excerpts removed as well.
+ * <p/>
+ * Nothing should be appending to the Chronicle while it is verified or truncated.
+ *
+ * @author peter.lawrey
+ */
+public enum ChronicleVerifier {
+    ;
+    static final int MAX_ANOMALIES = 100;
+    static final int MIN_RANGE_SIZE = 1 << 12;
+    static final int RANGES = 64;
+
+    public static class Result {
+        private final long consistentSize;
+        private final long lastEntry;
+        private final List<String> anomalies;
+
+        Result(long consistentSize, long lastEntry, List<String> anomalies) {
+            this.consistentSize = consistentSize;
+            this.lastEntry = lastEntry;
+            this.anomalies = Collections.unmodifiableList(anomalies);
+        }
+
+        /**
+         * @return the number of excerpts before the first anomaly.
+         */
+        public long consistentSize() {
+            return consistentSize;
+        }
+
+        /**
+         * @return the last non-zero index entry.
+         */
+        public long lastEntry() {
+            return lastEntry;
+        }
+
+        /**
+         * @return a description of each anomaly found, up to MAX_ANOMALIES.
+         */
+        public List<String> anomalies() {
+            return anomalies;
+        }
+
+        public boolean isConsistent() {
+            return anomalies.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            return "consistentSize=" + consistentSize + ", lastEntry=" + lastEntry + ", anomalies=" + anomalies;
+        }
+    }
+
+    /**
+     * @param chronicle    to verify
+     * @param executor     to check ranges of the index in parallel
+     * @param tailExcerpts the number of excerpts at the end whose data is checked as well.
+     * @return the excerpts which are consistent and any anomalies found.
+     * @throws InterruptedException if interrupted while waiting for the ranges to be checked.
+     */
+    public static Result verify(final IndexedChronicle chronicle, ExecutorService executor, int tailExcerpts) throws InterruptedException {
+        final long dataSize;
+        try {
+            dataSize = chronicle.dataChannel().size();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        // the excerpts freed by punchHolesBefore() are all zero and count as consistent.
+        long first = chronicle.firstIndex();
+        // entry i + 1 is the end of excerpt i.
+        long excerpts = Math.max(first, chronicle.indexCapacity() - 1);
+        long rangeSize = Math.max(MIN_RANGE_SIZE, (excerpts - first) / RANGES);
+        List<Future<RangeResult>> futures = new ArrayList<Future<RangeResult>>();
+        for (long from = first; from < excerpts; from += rangeSize) {
+            final long from0 = from;
+            final long to = Math.min(excerpts, from + rangeSize);
+            futures.add(executor.submit(new Callable<RangeResult>() {
+                @Override
+                public RangeResult call() {
+                    return verifyRange(chronicle, from0, to, dataSize);
+                }
+            }));
+        }
+
+        List<String> anomalies = new ArrayList<String>();
+        long firstBad = Long.MAX_VALUE, firstUnwritten = Long.MAX_VALUE, lastWritten = first - 1;
+        try {
+            for (Future<RangeResult> future : futures) {
+                RangeResult range = future.get();
+                firstBad = Math.min(firstBad, range.firstBad);
+                firstUnwritten = Math.min(firstUnwritten, range.firstUnwritten);
+                lastWritten = Math.max(lastWritten, range.lastWritten);
+                for (String anomaly : range.anomalies)
+                    if (anomalies.size() < MAX_ANOMALIES)
+                        anomalies.add(anomaly);
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            for (Future<RangeResult> future : futures)
+                future.cancel(true);
+        }
+        if (lastWritten > firstUnwritten) {
+            firstBad = Math.min(firstBad, firstUnwritten);
+            if (anomalies.size() < MAX_ANOMALIES)
+                anomalies.add("excerpt " + firstUnwritten + " is not written but excerpt " + lastWritten + " is");
+        }
+        long consistentSize = Math.min(firstBad, lastWritten + 1);
+
+        // check the data of the last excerpts.
+        AbstractExcerpt excerpt = (AbstractExcerpt) chronicle.createExcerpt();
+        for (long i = Math.max(first, consistentSize - tailExcerpts); i < consistentSize; i++) {
+            String anomaly = null;
+            try {
+                // index() is false for an excerpt starting with zeros as well, which is valid data.
+                excerpt.index(i);
+                if (excerpt.capacity() <= 0)
+                    anomaly = "excerpt " + i + " is not in the index";
+                else if (!excerpt.verifyChecksum())
+                    anomaly = "excerpt " + i + " has an incorrect checksum";
+            } catch (IllegalStateException e) {
+                anomaly = "excerpt " + i + " failed: " + e.getMessage();
+            }
+            if (anomaly != null) {
+                if (anomalies.size() < MAX_ANOMALIES)
+                    anomalies.add(anomaly);
+                consistentSize = i;
+                break;
+            }
+        }
+        // release the buffer of the last excerpt checked.
+        excerpt.toStart();
+        return new Result(consistentSize, lastWritten + 1, anomalies);
+    }
+
+    /**
+     * Remove the excerpts after the last consistent one, so the next excerpt is added after it.
+     *
+     * @param chronicle to truncate
+     * @param result    of verifying it.
+     */
+    public static void truncate(IndexedChronicle chronicle, Result result) {
+        chronicle.truncate(result.consistentSize(), result.lastEntry());
+    }
+
+    static final class RangeResult {
+        long firstBad = Long.MAX_VALUE;
+        long firstUnwritten = Long.MAX_VALUE;
+        long lastWritten = -1;
+        final List<String> anomalies = new ArrayList<String>();
+
+        void bad(long index, String anomaly) {
+            if (firstBad == Long.MAX_VALUE)
+                firstBad = index;
+            if (anomalies.size() < MAX_ANOMALIES)
+                anomalies.add("excerpt " + index + " " + anomaly);
+        }
+    }
+
+    static RangeResult verifyRange(IndexedChronicle chronicle, long from, long to, long dataSize) {
+        RangeResult result = new RangeResult();
+        long start = chronicle.getIndexData(from);
+        for (long i = from; i < to; i++) {
+            long end = chronicle.getIndexData(i + 1);
+            if (end == 0) {
+                if (result.firstUnwritten == Long.MAX_VALUE)
+                    result.firstUnwritten = i;
+            } else {
+                result.lastWritten = i;
+                long startPosition = start & ~DirectChronicle.UNCOMMITTED;
+                long endPosition = end & ~DirectChronicle.UNCOMMITTED;
+                if (end < 0)
+                    result.bad(i, "is not committed");
+                else if (endPosition <= startPosition)
+                    result.bad(i, "ends at " + endPosition + " before it starts at " + startPosition);
+                else if (endPosition > dataSize)
+                    result.bad(i, "ends at " + endPosition + " after the end of the data at " + dataSize);
+            }
+            start = end;
+        }
+        return result;
+    }
+}
@@ -27,22 +27,96 @@ import java.nio.MappedByteBuffer;
  * @author peter.lawrey
  */
 public interface DirectChronicle extends Chronicle {
+    /**
+     * Set on the end position of an excerpt which has been claimed but not finished by a concurrent appender.
+     */
+    long UNCOMMITTED = Long.MIN_VALUE;
 
     public long getIndexData(long indexId);
 
     MappedByteBuffer acquireDataBuffer(long startPosition);
 
+    /**
+     * Called when an excerpt stops using a buffer returned by acquireDataBuffer so it can be unmapped if it is no longer
+     * needed.
+     *
+     * @param buffer released.
+     */
+    void releaseDataBuffer(MappedByteBuffer buffer);
+
+    /**
+     * Map a buffer for an excerpt which spans more than one data segment. It is not shared, so the caller unmaps it
+     * when it has finished with it.
+     *
+     * @param startPosition of the excerpt
+     * @param length        of the excerpt
+     * @return the buffer starting at startPosition.
+     */
+    MappedByteBuffer mapDataBuffer(long startPosition, int length);
+
     int positionInBuffer(long startPosition);
 
+    int dataSegmentSize();
+
     void setIndexData(long indexId, long indexData);
 
     long startExcerpt(int capacity);
 
     void incrementSize();
 
+    boolean concurrentAppends();
+
+    /**
+     * @return true if the index entries can hold the UNCOMMITTED flag.
+     */
+    boolean uncommittedEntries();
+
+    /**
+     * @return true if an excerpt being appended can grow past the capacity it was started with.
+     */
+    boolean autoGrowExcerpts();
+
+    /**
+     * Claim the next index and data for an appender when concurrentAppends() is true.
+     *
+     * @param capacity of the excerpt
+     * @return the index claimed.
+     */
+    long claimExcerpt(int capacity);
+
+    /**
+     * Make an excerpt claimed with claimExcerpt visible to readers.
+     *
+     * @param index claimed.
+     */
+    void commitExcerpt(long index);
+
+    /**
+     * @param timeMillis to search for
+     * @return the index of the first excerpt which might have been added at or after this time, or 0 if there is no
+     *         time index.
+     */
+    long firstIndexFor(long timeMillis);
+
+    /**
+     * Load the pages of the index and data after an excerpt being read in the background.
+     *
+     * @param index         of the excerpt being read
+     * @param startPosition of the excerpt being read
+     * @param bytes         of each file to load.
+     */
+    void readAhead(long index, long startPosition, int bytes);
+
     <E> EnumeratedMarshaller<E> acquireMarshaller(Class<E> aClass);
 
     boolean synchronousMode();
 
+    /**
+     * @return true if each excerpt is prefixed with a checksum of its contents.
+     */
+    boolean checksums();
+
+    ChecksumVerification checksumVerification();
+
     boolean multiThreaded();
 }
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2013 Peter Lawrey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.higherfrequencytrading.chronicle.impl;
+
+import com.sun.jna.Library;
+import com.sun.jna.Memory;
+import com.sun.jna.Native;
+import com.sun.jna.Pointer;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Waits on and wakes up an int in shared memory with futex(2), so a thread in one process can wake threads waiting in
+ * others.  The memory must be a shared mapping of a file, and not a private one.
+ * <p/>
+ * This needs Linux on x86_64 or aarch64, and JNA, which is an optional dependency.  Elsewhere isSupported() is false.
+ *
+ * @author peter.lawrey
+ */
+enum Futex {
+    ;
+    private static final Logger logger = Logger.getLogger(Futex.class.getName());
+    // not FUTEX_PRIVATE_FLAG, as the waiters can be in other processes.
+    private static final int FUTEX_WAIT = 0;
+    private static final int FUTEX_WAKE = 1;
+    private static final long SYS_FUTEX = sysFutex();
+    private static final boolean SUPPORTED = SYS_FUTEX > 0 && loadSyscall();
+    // a struct timespec for each thread which waits.
+    private static final ThreadLocal<Memory> TIMESPEC = new ThreadLocal<Memory>() {
+        @Override
+        protected Memory initialValue() {
+            return new Memory(16);
+        }
+    };
+
+    static boolean isSupported() {
+        return SUPPORTED;
+    }
+
+    /**
+     * Wait until woken, the timeout passes, or straight away if the int is no longer the value expected.  It can also
+     * return early for a signal.
+     *
+     * @param address      of the int, which must be 4 byte aligned.
+     * @param expected     value of the int
+     * @param timeoutNanos the longest to wait
+     */
+    static void await(long address, int expected, long timeoutNanos) {
+        Memory timeout = TIMESPEC.get();
+        timeout.setLong(0, timeoutNanos / 1000000000L);
+        timeout.setLong(8, timeoutNanos % 1000000000L);
+        Syscall.LIBC.syscall(SYS_FUTEX, new Pointer(address), FUTEX_WAIT, expected, timeout, null, 0);
+    }
+
+    /**
+     * Wake every thread waiting on the int.
+     *
+     * @param address of the int, which must be 4 byte aligned.
+     */
+    static void wake(long address) {
+        Syscall.LIBC.syscall(SYS_FUTEX, new Pointer(address), FUTEX_WAKE, Integer.MAX_VALUE, null, null, 0);
+    }
+
+    private static long sysFutex() {
+        if (!System.getProperty("os.name").startsWith("Linux"))
+            return -1;
+        String arch = System.getProperty("os.arch");
+        if (arch.equals("amd64") || arch.equals("x86_64"))
+            return 202;
+        if (arch.equals("aarch64"))
+            return 98;
+        return -1;
+    }
+
+    private static boolean loadSyscall() {
+        try {
+            return Syscall.LIBC != null;
+        } catch (LinkageError e) {
+            // JNA is not on the class path.
+            logger.log(Level.FINE, "Unable to use futex", e);
+            return false;
+        }
+    }
+
+    // only loaded if JNA is available.
+    static final class Syscall {
+        static final LibC LIBC = load();
+
+        interface LibC extends Library {
+            // every argument is passed as 64-bit as syscall() reads them as longs.
+            long syscall(long number, Pointer uaddr, long op, long val, Pointer timeout, Pointer uaddr2, long val3);
+        }
+
+        private static LibC load() {
+            try {
+                return (LibC) Native.loadLibrary("c", LibC.class);
+            } catch (UnsatisfiedLinkError e) {
+                logger.log(Level.FINE, "Unable to load libc", e);
+                return null;
+            }
+        }
+    }
+}
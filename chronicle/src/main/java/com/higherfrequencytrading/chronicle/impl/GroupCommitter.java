@@ -0,0 +1,132 @@
+/*
+ * Copyright 2013 Peter Lawrey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.higherfrequencytrading.chronicle.impl;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Forces the excerpts of a Chronicle to disk in groups from a background thread.  A group is forced after a period of
+ * time or once enough excerpts are waiting, whichever comes first.
+ *
+ * @author peter.lawrey
+ */
+final class GroupCommitter implements Runnable {
+    private static final Logger logger = Logger.getLogger(GroupCommitter.class.getName());
+
+    private final IndexedChronicle chronicle;
+    private final long periodNanos;
+    private final int excerpts;
+    private final Thread thread;
+    private volatile boolean running = true;
+    // every excerpt before this has been forced to disk.
+    private volatile long durableSize;
+    // handed over by the appenders as the chronicle's size is not visible to this thread in single writer mode.
+    private final AtomicLong addedSize;
+
+    GroupCommitter(IndexedChronicle chronicle, long periodMicros, int excerpts) {
+        this.chronicle = chronicle;
+        this.periodNanos = TimeUnit.MICROSECONDS.toNanos(periodMicros);
+        this.excerpts = excerpts;
+        durableSize = chronicle.size();
+        addedSize = new AtomicLong(durableSize);
+        thread = new Thread(this, chronicle.name() + "-committer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    long durableSize() {
+        return durableSize;
+    }
+
+    /**
+     * Called by appenders after an excerpt has been added.
+     *
+     * @param size the number of excerpts now.
+     */
+    void excerptAdded(long size) {
+        long added;
+        // concurrent appenders can report their sizes out of order.
+        while ((added = addedSize.get()) < size)
+            if (addedSize.compareAndSet(added, size))
+                break;
+        if (size - durableSize >= excerpts)
+            LockSupport.unpark(thread);
+    }
+
+    boolean awaitDurable(long size, long timeout, TimeUnit unit) throws InterruptedException {
+        if (durableSize >= size)
+            return true;
+        long end = System.nanoTime() + unit.toNanos(timeout);
+        LockSupport.unpark(thread);
+        synchronized (this) {
+            long remaining;
+            while (durableSize < size) {
+                remaining = end - System.nanoTime();
+                if (remaining <= 0 || !running)
+                    return durableSize >= size;
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            LockSupport.parkNanos(this, periodNanos);
+            flush();
+        }
+    }
+
+    private void flush() {
+        long size = addedSize.get();
+        long durable = durableSize;
+        if (size <= durable)
+            return;
+        try {
+            chronicle.force(durable, size);
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "Failed to force " + chronicle.name(), e);
+            return;
+        }
+        synchronized (this) {
+            durableSize = size;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Stop the thread after forcing any excerpts still waiting.
+     */
+    void stop() {
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+}
@@ -17,8 +17,8 @@
 package com.higherfrequencytrading.chronicle.impl;
 
 import com.higherfrequencytrading.chronicle.Excerpt;
+import com.higherfrequencytrading.chronicle.WaitStrategy;
 import com.higherfrequencytrading.chronicle.tools.ChronicleTools;
-import sun.nio.ch.DirectBuffer;
 
 import java.io.File;
 import java.io.IOException;
@@ -27,8 +27,16 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -41,26 +49,65 @@ public class IndexedChronicle extends AbstractChronicle {
     public static final int DEFAULT_DATA_BITS_SIZE = 27; // 1 << 27 or 128 MB.
     public static final int DEFAULT_DATA_BITS_SIZE32 = 22; // 1 << 22 or 4 MB.
     private static final Logger logger = Logger.getLogger(IndexedChronicle.class.getName());
+    // layout of the .header file shared by concurrent appenders.
+    static final int HEADER_CLAIM = 0; // the next index to try to claim.
+    static final int HEADER_COMMITTED = 8; // every excerpt before this has been finished.
+    static final int HEADER_SIZE = 64;
 
-    // used if minimiseByteBuffers is false.  This is faster but uses much more virtual memory.
-    private final List<MappedByteBuffer> indexBuffers = new ArrayList<MappedByteBuffer>();
-    private final List<MappedByteBuffer> dataBuffers = new ArrayList<MappedByteBuffer>();
-    // used if minimiseByteBuffers is true;
-    private int lastIndexId = -1;
-    private MappedByteBuffer lastIndexBuffer = null;
-    private int lastDataId = -1;
-    private MappedByteBuffer lastDataBuffer = null;
+    // used if cachedSegments is 0.  This is faster but uses much more virtual memory.
+    // copy on write so other threads can read them without locking.
+    private volatile MappedByteBuffer[] indexBuffers = {};
+    private volatile MappedByteBuffer[] dataBuffers = {};
+    // used if cachedSegments is more than 0, or minimiseByteBuffers is true;
+    private SegmentCache indexCache = null;
+    private SegmentCache dataCache = null;
     // end of used.
+    private boolean concurrentAppends = false;
+    // used if concurrentAppends is true, shared by every process appending.
+    private FileChannel headerChannel = null;
+    private MappedByteBuffer header = null;
+    // used if asyncMapping is true, the next segments are mapped in the background.
+    private ExecutorService mapper = null;
+    private boolean preTouch = false;
+    // used by excerpts which read ahead.
+    private ExecutorService reader = null;
+    // the pages read by load() are summed here so the reads can't be optimised away.
+    private volatile int loaded = 0;
+    // used if preFaultWindow is more than 0, the pages ahead of the appender are touched in the background.
+    private volatile Prefaulter prefaulter = null;
+    private int preFaultWindow = 0;
+    // used by futexWaitStrategy() and if wakeReaders is true.
+    private ReaderWakeup readerWakeup = null;
+    private boolean wakeReaders = false;
+    private final AtomicReference<MappedSegment> nextIndexSegment = new AtomicReference<MappedSegment>();
+    private final AtomicReference<MappedSegment> nextDataSegment = new AtomicReference<MappedSegment>();
+    // the last segments the mapper was asked to map the next one for, concurrent appenders claim a request with a CAS.
+    private final AtomicInteger requestedIndexId = new AtomicInteger(-1);
+    private final AtomicInteger requestedDataId = new AtomicInteger(-1);
+    // used if groupCommit is enabled.
+    private GroupCommitter committer = null;
+    private TimeIndex timeIndex = null;
+    // used if a retention policy is set.
+    private RetentionManager retention = null;
+    private long punchedBefore = 0;
+    // the last size and index capacity found by writtenSize().
+    private volatile long lastWrittenSize = 0;
+    private volatile long lastIndexCapacity = 0;
     private final int indexBitSize;
     protected final int indexLowMask;
     private final int dataBitSize;
     private final int dataLowMask;
+    private final String basePath;
     private final FileChannel indexChannel;
     private final FileChannel dataChannel;
     private boolean useUnsafe = false;
+    private boolean checksums = false;
+    private boolean autoGrowExcerpts = false;
+    private int excerptAlignment = 1;
+    private ChecksumVerification checksumVerification = ChecksumVerification.NONE;
     private final ByteOrder byteOrder;
-    private final boolean minimiseByteBuffers;
     private final boolean synchronousMode;
+    private final boolean readOnly;
 
     public IndexedChronicle(String basePath) throws IOException {
         this(basePath, ChronicleTools.is64Bit() ? DEFAULT_DATA_BITS_SIZE : DEFAULT_DATA_BITS_SIZE32);
@@ -79,36 +126,78 @@ public class IndexedChronicle extends AbstractChronicle {
     }
 
     public IndexedChronicle(String basePath, int dataBitSizeHint, ByteOrder byteOrder, boolean minimiseByteBuffers, boolean synchronousMode) throws IOException {
+        this(basePath, dataBitSizeHint, byteOrder, minimiseByteBuffers, synchronousMode, false);
+    }
+
+    /**
+     * @param readOnly open the files read only and map them READ_ONLY, for processes which only read. The files must
+     *                 exist already.  Excerpts can't be added or changed, and useUnsafe is ignored as writing through
+     *                 Unsafe to a read only mapping would crash the JVM rather than throw an exception.
+     */
+    public IndexedChronicle(String basePath, int dataBitSizeHint, ByteOrder byteOrder, boolean minimiseByteBuffers, boolean synchronousMode, boolean readOnly) throws IOException {
         super(extractName(basePath));
 
+        this.basePath = basePath;
         this.byteOrder = byteOrder;
-        this.minimiseByteBuffers = minimiseByteBuffers;
+        if (minimiseByteBuffers)
+            cachedSegments(1);
         this.synchronousMode = synchronousMode;
+        this.readOnly = readOnly;
         indexBitSize = Math.min(30, Math.max(12, dataBitSizeHint - 3));
         dataBitSize = Math.min(30, Math.max(12, dataBitSizeHint));
         indexLowMask = (1 << indexBitSize) - 1;
         dataLowMask = (1 << dataBitSize) - 1;
 
         File parentFile = new File(basePath).getParentFile();
-        if (parentFile != null)
+        if (parentFile != null && !readOnly)
             //noinspection ResultOfMethodCallIgnored
             parentFile.mkdirs();
-        indexChannel = new RandomAccessFile(basePath + ".index", synchronousMode ? "rwd" : "rw").getChannel();
-        dataChannel = new RandomAccessFile(basePath + ".data", synchronousMode ? "rwd" : "rw").getChannel();
+        String mode = readOnly ? "r" : synchronousMode ? "rwd" : "rw";
+        indexChannel = new RandomAccessFile(basePath + ".index", mode).getChannel();
+        dataChannel = new RandomAccessFile(basePath + ".data", mode).getChannel();
 
         // find the last record.
-        long indexSize = indexChannel.size() >>> indexBitSize();
+        long indexSize = indexEntries(indexChannel.size());
         if (indexSize > 0) {
-            indexSize--;
-            while (indexSize > 0 && getIndexData(indexSize) == 0)
-                indexSize--;
-            logger.info(basePath + ", size=" + indexSize);
-            size = indexSize;
+            lastIndexCapacity = indexSize;
+            lastWrittenSize = size = findLastIndex(indexSize);
+            logger.info(basePath + ", size=" + size);
         } else {
             logger.info(basePath + " created.");
         }
     }
 
+    /**
+     * The entries written are non-zero and the rest of the index file is zero, so binary search for the last non-zero
+     * entry. This only touches O(log n) pages instead of every page of a pre-extended index file.
+     * <p/>
+     * The index segments freed by punchHolesBefore() are zero as well, so first find the last segment which starts
+     * with a non-zero entry.  Only the last few segments of the file have not been written.
+     *
+     * @param indexEntries the number of entries the index file has room for.
+     * @return the number of excerpts written.
+     */
+    private long findLastIndex(long indexEntries) {
+        long segmentEntries = indexEntries(1L << indexBitSize);
+        // entry 0 is always the start of the data, 0.
+        long lo = 0;
+        for (long start = (indexEntries - 1) / segmentEntries * segmentEntries; start > 0; start -= segmentEntries) {
+            if (getIndexData(start) != 0) {
+                lo = start;
+                break;
+            }
+        }
+        long hi = Math.min(indexEntries, lo + segmentEntries);
+        while (hi - lo > 1) {
+            long mid = (lo + hi) >>> 1;
+            if (getIndexData(mid) == 0)
+                hi = mid;
+            else
+                lo = mid;
+        }
+        return lo;
+    }
+
     private static String extractName(String basePath) {
         File file = new File(basePath);
         String name = file.getName();
@@ -135,8 +224,37 @@ public class IndexedChronicle extends AbstractChronicle {
         return 3;
     }
 
+    /**
+     * @param indexId of an entry
+     * @return the offset of the entry in the index file.
+     */
+    protected long indexOffset(long indexId) {
+        return indexId << indexBitSize();
+    }
+
+    /**
+     * @param indexFileSize in bytes
+     * @return the number of entries an index file of this size has room for.
+     */
+    protected long indexEntries(long indexFileSize) {
+        return indexFileSize >>> indexBitSize();
+    }
+
     public void useUnsafe(boolean useUnsafe) {
-        this.useUnsafe = useUnsafe && byteOrder == ByteOrder.nativeOrder();
+        this.useUnsafe = useUnsafe && byteOrder == ByteOrder.nativeOrder() && !readOnly;
+    }
+
+    public boolean readOnly() {
+        return readOnly;
+    }
+
+    String basePath() {
+        return basePath;
+    }
+
+    private void checkWritable() {
+        if (readOnly)
+            throw new IllegalStateException(name() + " is read only");
     }
 
     public boolean useUnsafe() {
@@ -147,9 +265,384 @@ public class IndexedChronicle extends AbstractChronicle {
         return byteOrder;
     }
 
+    /**
+     * Let excerpts grow past the capacity given to startExcerpt.  The excerpt being appended can use the rest of its data
+     * segment, and if it needs more, Excerpt.ensureCapacity() moves it to the next segment, or to a mapping of its own
+     * if it is larger than a segment.  This means the capacity given only needs to be an estimate.
+     * <p/>
+     * This is not supported with concurrent appends as the space after an excerpt can be claimed by another appender.
+     *
+     * @param autoGrowExcerpts to let excerpts grow.
+     */
+    public void autoGrowExcerpts(boolean autoGrowExcerpts) {
+        this.autoGrowExcerpts = autoGrowExcerpts;
+    }
+
+    /**
+     * Start each excerpt at a multiple of this many bytes, so its fields don't straddle cache lines, and a reader of an
+     * excerpt doesn't share a cache line with the writer of the next one if it is 64.  The space skipped is added to the
+     * end of the excerpt before it.  With checksums, the checksum is at the aligned position.
+     * <p/>
+     * This only changes where new excerpts start, so it can be changed at any time.
+     *
+     * @param excerptAlignment 1 for none, or 8, 16 or 64.
+     */
+    public void excerptAlignment(int excerptAlignment) {
+        if (excerptAlignment < 1 || excerptAlignment > 64 || Integer.bitCount(excerptAlignment) != 1)
+            throw new IllegalArgumentException("excerptAlignment must be a power of 2 up to 64, was " + excerptAlignment);
+        this.excerptAlignment = excerptAlignment;
+    }
+
+    public int excerptAlignment() {
+        return excerptAlignment;
+    }
+
+    /**
+     * @param position the end of the previous excerpt
+     * @param capacity of the next excerpt
+     * @return where the next excerpt starts.
+     */
+    private long excerptStart(long position, int capacity) {
+        position = (position + excerptAlignment - 1) & -excerptAlignment;
+        // does it overlap a ByteBuffer barrier, excerpts larger than a segment span them wherever they start.
+        if (capacity <= dataLowMask && (position & ~dataLowMask) != ((position + capacity) & ~dataLowMask))
+            position = (position + dataLowMask) & ~dataLowMask;
+        return position;
+    }
+
+    @Override
+    public boolean uncommittedEntries() {
+        return true;
+    }
+
+    @Override
+    public boolean autoGrowExcerpts() {
+        return autoGrowExcerpts && !concurrentAppends;
+    }
+
+    /**
+     * Add a CRC32 of its contents and its length before each excerpt when it is finished, so a torn or corrupted
+     * excerpt can be detected.  This changes the format of the files so it must be the same for every Chronicle using them.
+     *
+     * @param checksums to add a checksum to each excerpt.
+     */
+    public void checksums(boolean checksums) {
+        this.checksums = checksums;
+    }
+
+    @Override
+    public boolean checksums() {
+        return checksums;
+    }
+
+    /**
+     * @param checksumVerification when checksums are checked. Checking them on every read costs about as much as
+     *                             computing them on write.
+     */
+    public void checksumVerification(ChecksumVerification checksumVerification) {
+        this.checksumVerification = checksumVerification;
+    }
+
+    @Override
+    public ChecksumVerification checksumVerification() {
+        return checksumVerification;
+    }
+
+    /**
+     * Keep at most this many index segments and this many data segments mapped, unmapping the least recently used
+     * ones.  A few segments avoid remapping when readers move between segments, or several readers are at different
+     * points.  0 keeps every segment mapped, which is fastest but uses the most virtual memory.  minimiseByteBuffers is
+     * the same as 1.
+     * <p/>
+     * An evicted data segment is unmapped as soon as no excerpt is using it.
+     * <p/>
+     * This should be set before reading or writing.
+     *
+     * @param cachedSegments the number of segments of each file to keep mapped, or 0 for all of them.
+     */
+    public void cachedSegments(int cachedSegments) {
+        if (cachedSegments < 0)
+            throw new IllegalArgumentException("cachedSegments must be 0 or more");
+        // index segments are used briefly by any thread without being acquired, so they are left to the GC.
+        indexCache = cachedSegments == 0 ? null : new SegmentCache(cachedSegments, false);
+        dataCache = cachedSegments == 0 ? null : new SegmentCache(cachedSegments, true);
+    }
+
+    public int cachedSegments() {
+        return dataCache == null ? 0 : dataCache.capacity();
+    }
+
+    /**
+     * Map the next index and data segments in a background thread while the appender is still writing to the current
+     * ones, so crossing a segment boundary doesn't stall the writer.  This should be set before writing.
+     *
+     * @param asyncMapping if true, start a mapper thread for this chronicle.
+     */
+    public void asyncMapping(boolean asyncMapping) {
+        if (asyncMapping == (mapper != null))
+            return;
+        if (asyncMapping) {
+            mapper = newDaemonExecutor(name() + "-mapper");
+        } else {
+            stopMapper();
+        }
+    }
+
+    public boolean asyncMapping() {
+        return mapper != null;
+    }
+
+    private static ExecutorService newDaemonExecutor(final String threadName) {
+        return Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, threadName);
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * @param preTouch if true, the mapper thread also touches every page of the segments it maps so the page faults
+     *                 happen in the background as well.
+     */
+    public void preTouch(boolean preTouch) {
+        this.preTouch = preTouch;
+    }
+
+    public boolean preTouch() {
+        return preTouch;
+    }
+
+    /**
+     * Extend the files and fault in the pages up to this many bytes ahead of the appender in a background thread, so
+     * the writer only writes to pages which are already resident and allocated.  The new pages of the file are zero
+     * filled by the OS when they are first touched, which is when a fresh file has its blocks allocated.
+     * <p/>
+     * This complements asyncMapping and preTouch which prepare whole segments; this keeps a window of a few MB ahead
+     * of the writer even when the segments are large.  The window is applied to the data and to the index files.
+     *
+     * @param preFaultWindow the number of bytes ahead of the appender to pre-fault, or 0 to disable.
+     */
+    public void preFaultWindow(int preFaultWindow) {
+        if (preFaultWindow < 0)
+            throw new IllegalArgumentException("preFaultWindow must not be negative, was " + preFaultWindow);
+        if (preFaultWindow > 0)
+            checkWritable();
+        stopPrefaulter();
+        this.preFaultWindow = preFaultWindow;
+        if (preFaultWindow > 0)
+            prefaulter = new Prefaulter(this, preFaultWindow);
+    }
+
+    public int preFaultWindow() {
+        return preFaultWindow;
+    }
+
+    /**
+     * Wake the readers waiting with a futexWaitStrategy(), in this process or another, each time an excerpt is added.
+     * This costs the appender an atomic increment of an int in a memory mapped basePath.notify file per excerpt, and a
+     * futex(2) call when a reader is waiting.
+     *
+     * @param wakeReaders true to wake readers.
+     */
+    public void wakeReaders(boolean wakeReaders) {
+        if (wakeReaders) {
+            checkWritable();
+            readerWakeup();
+        }
+        this.wakeReaders = wakeReaders;
+    }
+
+    public boolean wakeReaders() {
+        return wakeReaders;
+    }
+
+    /**
+     * A wait strategy which spins, then sleeps until an appender which wakeReaders() adds an excerpt, in this process
+     * or another, without polling.  It waits at most maxWaitNanos in case the appender doesn't wake readers, which is
+     * also how far past its timeout Excerpt.nextIndex(WaitStrategy, long, TimeUnit) can return.
+     * <p/>
+     * This needs futex(2), i.e. Linux on x86_64 or aarch64, and JNA which is an optional dependency.  Elsewhere the
+     * fallback is returned.  Each reader needs a wait strategy of its own.
+     *
+     * @param spins        polls before waiting.
+     * @param maxWaitNanos the longest to wait before polling again.
+     * @param fallback     the wait strategy to use without futex(2), e.g. WaitStrategies.SPIN_PARK
+     * @return a wait strategy for one reader.
+     */
+    public WaitStrategy futexWaitStrategy(int spins, long maxWaitNanos, WaitStrategy fallback) {
+        if (!Futex.isSupported())
+            return fallback;
+        return new ReaderWakeup.FutexWaitStrategy(readerWakeup(), spins, maxWaitNanos);
+    }
+
+    private synchronized ReaderWakeup readerWakeup() {
+        if (readerWakeup == null)
+            try {
+                readerWakeup = new ReaderWakeup(basePath + ".notify");
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        return readerWakeup;
+    }
+
+    /**
+     * Allow any number of threads to append at once without locking, each with its own Excerpt. Each appender claims
+     * the next index entry and the data after it with a compare-and-swap on the mapped index. Until the excerpt is
+     * finished, its index entry is marked UNCOMMITTED and readers wait for it.
+     * <p/>
+     * As a later excerpt can be claimed before an earlier one finishes, excerpts are not shrink wrapped, their
+     * capacity is the capacity requested.
+     * <p/>
+     * The next index to claim and the number of excerpts committed are kept in a memory mapped basePath.header file so
+     * appenders and readers in other processes can share the same files.  Every process using the files must enable
+     * this as it also locks the header while the index and data files are extended.
+     * <p/>
+     * This requires an index with 8 byte entries in the native byte order.
+     *
+     * @param concurrentAppends to enable or disable concurrent appends
+     */
+    public void concurrentAppends(boolean concurrentAppends) {
+        if (concurrentAppends == this.concurrentAppends)
+            return;
+        if (!concurrentAppends) {
+            this.concurrentAppends = false;
+            closeHeader();
+            return;
+        }
+        checkWritable();
+        if (indexBitSize() != 3 || byteOrder != ByteOrder.nativeOrder())
+            throw new IllegalStateException("Concurrent appends require an 8 byte index in the native byte order");
+        try {
+            headerChannel = new RandomAccessFile(basePath + ".header", "rw").getChannel();
+            FileLock lock = lockHeader();
+            try {
+                header = headerChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+            } finally {
+                lock.release();
+            }
+        } catch (IOException e) {
+            closeHeader();
+            throw new IllegalStateException(e);
+        }
+        // a new header starts after the excerpts already written.
+        if (headerLong(HEADER_CLAIM) == 0) {
+            raiseHeader(HEADER_CLAIM, size);
+            raiseHeader(HEADER_COMMITTED, size);
+        }
+        this.concurrentAppends = true;
+    }
+
+    @Override
+    public boolean concurrentAppends() {
+        return concurrentAppends;
+    }
+
+    /**
+     * Record when excerpts are added in a basePath.time file, so Excerpt.seekToTime() can find where to start from a
+     * time without scanning the Chronicle.  An entry is added every so many excerpts or milliseconds, whichever comes
+     * first, and seekToTime() can start up to this much before the time.  Readers which seek by time also enable it.
+     * <p/>
+     * With concurrent appends, only one process should add to the time index.
+     *
+     * @param everyExcerpts the most excerpts between entries.
+     * @param everyMillis   the most milliseconds between entries.
+     */
+    public void timeIndex(int everyExcerpts, long everyMillis) {
+        if (timeIndex != null)
+            timeIndex.close();
+        try {
+            timeIndex = new TimeIndex(basePath + ".time", everyExcerpts, everyMillis, readOnly);
+        } catch (IOException e) {
+            timeIndex = null;
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public long firstIndexFor(long timeMillis) {
+        TimeIndex timeIndex = this.timeIndex;
+        return timeIndex == null ? 0 : timeIndex.firstIndexFor(timeMillis);
+    }
+
     @Override
     public boolean synchronousMode() {
-        return synchronousMode;
+        return synchronousMode && committer == null;
+    }
+
+    /**
+     * Force excerpts to disk in groups from a background thread, rather than forcing each excerpt as it is finished
+     * in synchronousMode.  A group is forced every periodMicros, or sooner once the given number of excerpts are
+     * waiting.  Appenders which need to know an excerpt is on disk can wait with awaitDurable().
+     * <p/>
+     * This replaces synchronousMode while it is enabled.
+     *
+     * @param periodMicros the longest an excerpt waits to be forced, or 0 to stop group commits.
+     * @param excerpts     the number of excerpts waiting which triggers a group commit sooner.
+     */
+    public void groupCommit(long periodMicros, int excerpts) {
+        if (committer != null) {
+            committer.stop();
+            committer = null;
+        }
+        if (periodMicros > 0)
+            committer = new GroupCommitter(this, periodMicros, Math.max(1, excerpts));
+    }
+
+    public boolean groupCommit() {
+        return committer != null;
+    }
+
+    /**
+     * @return the number of excerpts which have been forced to disk by group commits.
+     */
+    public long durableSize() {
+        GroupCommitter committer = this.committer;
+        if (committer == null)
+            throw new IllegalStateException("groupCommit is not enabled");
+        return committer.durableSize();
+    }
+
+    /**
+     * Wait for a group commit to force every excerpt before the given index to disk.
+     *
+     * @param size    the number of excerpts which need to be on disk, e.g. the index of the last excerpt + 1.
+     * @param timeout to wait
+     * @param unit    of the timeout
+     * @return true if they are on disk, false if it timed out.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public boolean awaitDurable(long size, long timeout, TimeUnit unit) throws InterruptedException {
+        GroupCommitter committer = this.committer;
+        if (committer == null)
+            throw new IllegalStateException("groupCommit is not enabled");
+        return committer.awaitDurable(size, timeout, unit);
+    }
+
+    /**
+     * Force the data and index of a range of excerpts to disk.  The data is forced first so the index never refers to
+     * data which isn't on disk.
+     *
+     * @param fromIndex first excerpt
+     * @param toIndex   last excerpt (exclusive)
+     */
+    void force(long fromIndex, long toIndex) {
+        long startPosition = getIndexData(fromIndex) & ~UNCOMMITTED;
+        long endPosition = getIndexData(toIndex) & ~UNCOMMITTED;
+        for (long position = startPosition & ~dataLowMask; position < endPosition; position += dataLowMask + 1) {
+            MappedByteBuffer buffer = acquireDataBuffer(position);
+            try {
+                buffer.force();
+            } finally {
+                releaseDataBuffer(buffer);
+            }
+        }
+        long startOffset = indexOffset(fromIndex + 1);
+        long endOffset = indexOffset(toIndex);
+        for (long offset = startOffset & ~indexLowMask; offset <= endOffset; offset += indexLowMask + 1)
+            acquireIndexBuffer(offset).force();
     }
 
     @Override
@@ -161,6 +654,9 @@ public class IndexedChronicle extends AbstractChronicle {
     public long getIndexData(long indexId) {
         long indexOffset = indexId << indexBitSize();
         ByteBuffer indexBuffer = acquireIndexBuffer(indexOffset);
+        // read only and not written yet.
+        if (indexBuffer == null)
+            return 0;
         return indexBuffer.getLong((int) (indexOffset & indexLowMask));
     }
 
@@ -168,43 +664,47 @@ public class IndexedChronicle extends AbstractChronicle {
         if (startPosition >= MAX_VIRTUAL_ADDRESS)
             throwByteOrderIsIncorrect();
         int indexBufferId = (int) (startPosition >> indexBitSize);
-        if (minimiseByteBuffers) {
-            if (lastIndexId == indexBufferId)
-                return lastIndexBuffer;
+        SegmentCache indexCache = this.indexCache;
+        MappedByteBuffer buffer = indexCache != null
+                ? indexCache.get(indexBufferId)
+                : buffer(indexBuffers, indexBufferId);
+        if (buffer != null)
+            return buffer;
+        return createIndexBuffer(indexBufferId);
+    }
 
-        } else {
-            if (indexBuffers.size() <= indexBufferId)
-                fillIndexBufferWithNulls(indexBufferId);
-            MappedByteBuffer buffer = indexBuffers.get(indexBufferId);
-            if (buffer != null)
-                return buffer;
-        }
-        return createIndexBuffer(startPosition, indexBufferId);
+    private static MappedByteBuffer buffer(MappedByteBuffer[] buffers, int id) {
+        return id < buffers.length ? buffers[id] : null;
     }
 
-    private void fillIndexBufferWithNulls(int indexBufferId) {
-        while (indexBuffers.size() <= indexBufferId) indexBuffers.add(null);
+    private static MappedByteBuffer[] store(MappedByteBuffer[] buffers, int id, MappedByteBuffer mbb) {
+        if (buffers.length <= id)
+            buffers = Arrays.copyOf(buffers, Math.max(id + 1, buffers.length * 2));
+        buffers[id] = mbb;
+        return buffers;
     }
 
-    private MappedByteBuffer createIndexBuffer(long startPosition, int indexBufferId) {
+    private synchronized MappedByteBuffer createIndexBuffer(int indexBufferId) {
         try {
+            // another thread might have mapped it already.
+            MappedByteBuffer mbb = indexCache != null
+                    ? indexCache.get(indexBufferId)
+                    : buffer(indexBuffers, indexBufferId);
+            if (mbb != null)
+                return mbb;
+            // a read only mapping can't extend the file, the segment hasn't been written yet.
+            if (readOnly && indexChannel.size() < (long) (indexBufferId + 1) << indexBitSize)
+                return null;
 //            long start = System.nanoTime();
-            MappedByteBuffer mbb;
-            try {
-                mbb = indexChannel.map(FileChannel.MapMode.READ_WRITE, startPosition & ~indexLowMask, 1 << indexBitSize);
-            } catch (OutOfMemoryError e) {
-                System.gc();
-                mbb = indexChannel.map(FileChannel.MapMode.READ_WRITE, startPosition & ~indexLowMask, 1 << indexBitSize);
-            }
+            mbb = takeSegment(nextIndexSegment, indexBufferId);
+            if (mbb == null)
+                mbb = mapIndexSegment(indexBufferId);
 //            long time = System.nanoTime() - start;
 //            System.out.println(Thread.currentThread().getName()+": map "+time);
-            mbb.order(byteOrder);
-            if (minimiseByteBuffers) {
-                lastIndexBuffer = mbb;
-                lastIndexId = indexBufferId;
-            } else {
-                indexBuffers.set(indexBufferId, mbb);
-            }
+            if (indexCache != null)
+                indexCache.add(new MappedSegment(indexBufferId, mbb));
+            else
+                indexBuffers = store(indexBuffers, indexBufferId, mbb);
             return mbb;
         } catch (IOException e) {
             throw new IllegalStateException(e);
@@ -216,46 +716,231 @@ public class IndexedChronicle extends AbstractChronicle {
         if (startPosition >= MAX_VIRTUAL_ADDRESS)
             return throwByteOrderIsIncorrect();
         int dataBufferId = (int) (startPosition >> dataBitSize);
-        if (minimiseByteBuffers) {
-            if (lastDataId == dataBufferId) {
-                return lastDataBuffer;
-            }
-        } else {
-            if (dataBuffers.size() <= dataBufferId)
-                fillDataBuffersWithNulls(dataBufferId);
-            MappedByteBuffer buffer = dataBuffers.get(dataBufferId);
-            if (buffer != null)
-                return buffer;
+        SegmentCache dataCache = this.dataCache;
+        if (dataCache != null) {
+            MappedByteBuffer buffer;
+            while ((buffer = dataCache.acquire(dataBufferId)) == null)
+                createDataBuffer(dataBufferId);
+            return buffer;
         }
-        return createDataBuffer(startPosition, dataBufferId);
+        MappedByteBuffer buffer = buffer(dataBuffers, dataBufferId);
+        if (buffer != null)
+            return buffer;
+        return createDataBuffer(dataBufferId);
     }
 
-    private void fillDataBuffersWithNulls(int dataBufferId) {
-        while (dataBuffers.size() <= dataBufferId) dataBuffers.add(null);
+    @Override
+    public void releaseDataBuffer(MappedByteBuffer buffer) {
+        SegmentCache dataCache = this.dataCache;
+        if (dataCache != null)
+            dataCache.release(buffer);
     }
 
-    private MappedByteBuffer createDataBuffer(long startPosition, int dataBufferId) {
+    private synchronized MappedByteBuffer createDataBuffer(int dataBufferId) {
         try {
-            MappedByteBuffer mbb;
-            try {
-                mbb = dataChannel.map(FileChannel.MapMode.READ_WRITE, startPosition & ~dataLowMask, 1 << dataBitSize);
-            } catch (OutOfMemoryError e) {
-                System.gc();
-                mbb = dataChannel.map(FileChannel.MapMode.READ_WRITE, startPosition & ~dataLowMask, 1 << dataBitSize);
-            }
+            // another thread might have mapped it already.
+            MappedByteBuffer mbb = dataCache != null
+                    ? dataCache.get(dataBufferId)
+                    : buffer(dataBuffers, dataBufferId);
+            if (mbb != null)
+                return mbb;
+            mbb = takeSegment(nextDataSegment, dataBufferId);
+            if (mbb == null)
+                mbb = mapDataSegment(dataBufferId);
+            if (dataCache != null)
+                dataCache.add(new MappedSegment(dataBufferId, mbb));
+            else
+                dataBuffers = store(dataBuffers, dataBufferId, mbb);
+            return mbb;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public MappedByteBuffer mapDataBuffer(long startPosition, int length) {
+        if (startPosition + length > MAX_VIRTUAL_ADDRESS)
+            return throwByteOrderIsIncorrect();
+        try {
+            MappedByteBuffer mbb = map(dataChannel, startPosition, length);
             mbb.order(ByteOrder.nativeOrder());
-            if (minimiseByteBuffers) {
-                lastDataBuffer = mbb;
-                lastDataId = dataBufferId;
-            } else {
-                dataBuffers.set(dataBufferId, mbb);
-            }
             return mbb;
         } catch (IOException e) {
             throw new IllegalStateException(e);
         }
     }
 
+    private MappedByteBuffer mapIndexSegment(int indexBufferId) throws IOException {
+        MappedByteBuffer mbb = map(indexChannel, (long) indexBufferId << indexBitSize, 1 << indexBitSize);
+        mbb.order(byteOrder);
+        return mbb;
+    }
+
+    private MappedByteBuffer mapDataSegment(int dataBufferId) throws IOException {
+        MappedByteBuffer mbb = map(dataChannel, (long) dataBufferId << dataBitSize, 1 << dataBitSize);
+        mbb.order(ByteOrder.nativeOrder());
+        return mbb;
+    }
+
+    private MappedByteBuffer map(FileChannel channel, long position, int size) throws IOException {
+        // mapping past the end extends the file, this must not race with another process extending it.
+        FileLock lock = header == null ? null : lockHeader();
+        try {
+            return map0(channel, position, size);
+        } finally {
+            if (lock != null)
+                lock.release();
+        }
+    }
+
+    private MappedByteBuffer map0(FileChannel channel, long position, int size) throws IOException {
+        try {
+            return channel.map(mapMode(), position, size);
+        } catch (IOException e) {
+            // out of address space, unmap the data segments no excerpt is using and try again.
+            SegmentCache dataCache = this.dataCache;
+            if (!(e.getCause() instanceof OutOfMemoryError) || dataCache == null || dataCache.trim() == 0)
+                throw e;
+            return channel.map(mapMode(), position, size);
+        }
+    }
+
+    private FileChannel.MapMode mapMode() {
+        return readOnly ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE;
+    }
+
+    private FileLock lockHeader() throws IOException {
+        while (true) {
+            try {
+                return headerChannel.lock();
+            } catch (OverlappingFileLockException e) {
+                // held by another thread or Chronicle in this JVM.
+                Thread.yield();
+            }
+        }
+    }
+
+    private static MappedByteBuffer takeSegment(AtomicReference<MappedSegment> nextSegment, int id) {
+        MappedSegment segment = nextSegment.get();
+        if (segment != null && segment.id == id && nextSegment.compareAndSet(segment, null))
+            return segment.buffer;
+        return null;
+    }
+
+    /**
+     * Called by the appender for the position it is about to write to. If it has moved into a new segment, ask the
+     * mapper to prepare the one after it.
+     */
+    private void requestNextSegments(long indexId, long startPosition) {
+        final int indexBufferId = (int) (indexOffset(indexId) >> indexBitSize);
+        if (claimRequest(requestedIndexId, indexBufferId)) {
+            mapper.execute(new Runnable() {
+                @Override
+                public void run() {
+                    prepareSegment(nextIndexSegment, indexBufferId + 1, true);
+                }
+            });
+        }
+        final int dataBufferId = (int) (startPosition >> dataBitSize);
+        if (claimRequest(requestedDataId, dataBufferId)) {
+            mapper.execute(new Runnable() {
+                @Override
+                public void run() {
+                    prepareSegment(nextDataSegment, dataBufferId + 1, false);
+                }
+            });
+        }
+    }
+
+    /**
+     * @return true if this appender is the first to reach this segment, segments behind the latest are ignored.
+     */
+    private static boolean claimRequest(AtomicInteger requestedId, int id) {
+        int requested;
+        while (id > (requested = requestedId.get()))
+            if (requestedId.compareAndSet(requested, id))
+                return true;
+        return false;
+    }
+
+    private void requestPreFault(long indexId, long endPosition) {
+        Prefaulter prefaulter = this.prefaulter;
+        if (prefaulter != null)
+            prefaulter.request(indexOffset(indexId + 2), endPosition);
+    }
+
+    // runs in the prefaulter thread.
+    void preFault(long indexFrom, long indexTo, long dataFrom, long dataTo) {
+        // mapping a segment extends the file so touching its pages allocates them.
+        for (long offset = indexFrom; offset < indexTo; offset = (offset | indexLowMask) + 1) {
+            MappedByteBuffer buffer = acquireIndexBuffer(offset);
+            MappedBuffers.touch(buffer, (int) (offset & indexLowMask), (int) Math.min(indexLowMask + 1, indexTo - (offset & ~indexLowMask)));
+        }
+        for (long position = dataFrom; position < dataTo; position = (position | dataLowMask) + 1) {
+            MappedByteBuffer buffer = acquireDataBuffer(position);
+            try {
+                MappedBuffers.touch(buffer, (int) (position & dataLowMask), (int) Math.min(dataLowMask + 1, dataTo - (position & ~dataLowMask)));
+            } finally {
+                releaseDataBuffer(buffer);
+            }
+        }
+    }
+
+    // runs in the mapper thread.
+    private void prepareSegment(AtomicReference<MappedSegment> nextSegment, int id, boolean index) {
+        try {
+            MappedByteBuffer mbb = index ? mapIndexSegment(id) : mapDataSegment(id);
+            if (preTouch)
+                MappedBuffers.touch(mbb, 0, mbb.capacity());
+            MappedSegment previous = nextSegment.getAndSet(new MappedSegment(id, mbb));
+            // the writer skipped over this one without using it.
+            if (previous != null)
+                MappedBuffers.unmap(previous.buffer);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to map segment " + id + " of " + name(), e);
+        }
+    }
+
+    @Override
+    public void readAhead(final long index, final long startPosition, final int bytes) {
+        ExecutorService reader;
+        synchronized (this) {
+            reader = this.reader;
+            if (reader == null)
+                reader = this.reader = newDaemonExecutor(name() + "-reader");
+        }
+        reader.execute(new Runnable() {
+            @Override
+            public void run() {
+                load(index, startPosition, bytes);
+            }
+        });
+    }
+
+    // runs in the reader thread.
+    private void load(long index, long startPosition, int bytes) {
+        int loaded = 0;
+        // only what has been written.
+        long size = size();
+        long indexEnd = Math.min(indexOffset(index) + bytes, indexOffset(size + 1));
+        for (long offset = indexOffset(index); offset < indexEnd; offset = (offset | indexLowMask) + 1) {
+            MappedByteBuffer buffer = acquireIndexBuffer(offset);
+            if (buffer == null)
+                break;
+            loaded += MappedBuffers.load(buffer, (int) (offset & indexLowMask), (int) Math.min(indexLowMask + 1, indexEnd - (offset & ~indexLowMask)));
+        }
+        long dataEnd = Math.min(startPosition + bytes, getIndexData(size) & ~UNCOMMITTED);
+        for (long position = startPosition; position < dataEnd; position = (position | dataLowMask) + 1) {
+            MappedByteBuffer buffer = acquireDataBuffer(position);
+            try {
+                loaded += MappedBuffers.load(buffer, (int) (position & dataLowMask), (int) Math.min(dataLowMask + 1, dataEnd - (position & ~dataLowMask)));
+            } finally {
+                releaseDataBuffer(buffer);
+            }
+        }
+        this.loaded = loaded;
+    }
+
     private MappedByteBuffer throwByteOrderIsIncorrect() {
         throw new IllegalStateException("ByteOrder is incorrect.");
     }
@@ -265,6 +950,11 @@ public class IndexedChronicle extends AbstractChronicle {
         return (int) (startPosition & dataLowMask);
     }
 
+    @Override
+    public int dataSegmentSize() {
+        return dataLowMask + 1;
+    }
+
     @Override
     public void setIndexData(long indexId, long indexData) {
         long indexOffset = indexId << indexBitSize();
@@ -276,20 +966,336 @@ public class IndexedChronicle extends AbstractChronicle {
 
     @Override
     public long startExcerpt(int capacity) {
-        long startPosition = getIndexData(size);
-        assert size == 0 || startPosition != 0;
-        // does it overlap a ByteBuffer barrier.
-        if ((startPosition & ~dataLowMask) != ((startPosition + capacity) & ~dataLowMask)) {
-            // resize the previous entry.
-            startPosition = (startPosition + dataLowMask) & ~dataLowMask;
-            setIndexData(size, startPosition);
-        }
+        checkWritable();
+        long indexData = getIndexData(size);
+        // the first excerpt of a batch is flagged until the batch is finished.
+        long end = indexData & ~UNCOMMITTED;
+        assert size == 0 || end != 0;
+        long startPosition = excerptStart(end, capacity);
+        // resize the previous entry.
+        if (startPosition != end)
+            setIndexData(size, (indexData & UNCOMMITTED) | startPosition);
+        if (mapper != null)
+            requestNextSegments(size, startPosition);
+        if (prefaulter != null)
+            requestPreFault(size, startPosition + capacity);
         return startPosition;
     }
 
+    @Override
+    public long claimExcerpt(int capacity) {
+        long index = headerLong(HEADER_CLAIM);
+        while (true) {
+            // already claimed by another appender.
+            if (getIndexData(index + 1) != 0) {
+                index++;
+                continue;
+            }
+            long start = getIndexData(index) & ~UNCOMMITTED;
+            long startPosition = excerptStart(start, capacity);
+            if (!compareAndSwapIndexData(index + 1, 0, (startPosition + capacity) | UNCOMMITTED))
+                continue;
+            // only the owner of this entry changes the previous one, apart from committing it.
+            if (startPosition != start)
+                while (true) {
+                    long previous = getIndexData(index);
+                    if (compareAndSwapIndexData(index, previous, (previous & UNCOMMITTED) | startPosition))
+                        break;
+                }
+            raiseHeader(HEADER_CLAIM, index + 1);
+            if (mapper != null)
+                requestNextSegments(index, startPosition);
+            if (prefaulter != null)
+                requestPreFault(index, startPosition + capacity);
+            return index;
+        }
+    }
+
+    @Override
+    public void commitExcerpt(long index) {
+        while (true) {
+            long end = getIndexData(index + 1);
+            if (compareAndSwapIndexData(index + 1, end, end & ~UNCOMMITTED))
+                break;
+        }
+        // move the committed size past every excerpt finished so far, including any finished before this one.
+        long committed;
+        while (getIndexData((committed = headerLong(HEADER_COMMITTED)) + 1) > 0)
+            MappedBuffers.compareAndSwapLong(header, HEADER_COMMITTED, committed, committed + 1);
+        if (committer != null)
+            committer.excerptAdded(committed);
+        if (timeIndex != null)
+            timeIndex.excerptsAdded(committed, System.currentTimeMillis());
+        if (wakeReaders)
+            readerWakeup.excerptAdded();
+        if (synchronousMode())
+            acquireIndexBuffer((index + 1) << indexBitSize()).force();
+    }
+
+    private boolean compareAndSwapIndexData(long indexId, long expected, long indexData) {
+        long indexOffset = indexId << indexBitSize();
+        MappedByteBuffer indexBuffer = acquireIndexBuffer(indexOffset);
+        return MappedBuffers.compareAndSwapLong(indexBuffer, (int) (indexOffset & indexLowMask), expected, indexData);
+    }
+
+    private long headerLong(int offset) {
+        return MappedBuffers.getLongVolatile(header, offset);
+    }
+
+    private void raiseHeader(int offset, long value) {
+        long current;
+        while ((current = headerLong(offset)) < value)
+            if (MappedBuffers.compareAndSwapLong(header, offset, current, value))
+                break;
+    }
+
     @Override
     public void incrementSize() {
         size++;
+        if (committer != null)
+            committer.excerptAdded(size);
+        if (timeIndex != null)
+            timeIndex.excerptsAdded(size, System.currentTimeMillis());
+        if (wakeReaders)
+            readerWakeup.excerptAdded();
+    }
+
+    /**
+     * Called after excerpts have been copied into the files directly, and their index entries set.
+     *
+     * @param count of excerpts added
+     */
+    void excerptsCopied(long count) {
+        checkWritable();
+        size += count;
+        if (committer != null)
+            committer.excerptAdded(size);
+        if (timeIndex != null)
+            timeIndex.excerptsAdded(size, System.currentTimeMillis());
+        if (wakeReaders)
+            readerWakeup.excerptAdded();
+    }
+
+    FileChannel dataChannel() {
+        return dataChannel;
+    }
+
+    /**
+     * @return the number of entries the index file has room for.
+     */
+    long indexCapacity() {
+        try {
+            return indexEntries(indexChannel.size());
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Free the disk space of the excerpts before an index, so a long running process can keep its disk use bounded.
+     * Whole index segments are freed, and the data before the first excerpt they still index, so up to a segment of
+     * excerpts before index are kept.  The file sizes and the indexes of the excerpts kept don't change, and the
+     * excerpts freed can no longer be read.  Readers which start from the beginning should start from firstIndex().
+     * <p/>
+     * Holes can only be punched where SparseFiles.isSupported(), i.e. on Linux with JNA on the class path.
+     *
+     * @param index of the first excerpt which must be kept.
+     * @return the index of the first excerpt kept.
+     */
+    public synchronized long punchHolesBefore(long index) {
+        checkWritable();
+        long segmentEntries = indexEntries(1L << indexBitSize);
+        long first = Math.min(index, size()) / segmentEntries * segmentEntries;
+        if (first <= punchedBefore || !SparseFiles.isSupported())
+            return punchedBefore;
+        long indexEnd = indexOffset(first);
+        long dataEnd = getIndexData(first) >> dataBitSize << dataBitSize;
+        // free the index first so the excerpts can't be found once their data has gone.
+        if (!SparseFiles.punchHole(indexChannel, 0, indexEnd) || !SparseFiles.punchHole(dataChannel, 0, dataEnd)) {
+            logger.warning("Unable to punch holes in " + basePath);
+            return punchedBefore;
+        }
+        // the segments freed are remapped if read again.
+        for (int id = (int) (indexOffset(punchedBefore) >> indexBitSize); id < indexEnd >> indexBitSize; id++) {
+            if (indexCache != null)
+                indexCache.remove(id);
+            else if (id < indexBuffers.length)
+                indexBuffers[id] = null;
+        }
+        for (int id = 0; id < dataEnd >> dataBitSize; id++) {
+            if (dataCache != null)
+                dataCache.remove(id);
+            else if (id < dataBuffers.length)
+                dataBuffers[id] = null;
+        }
+        return punchedBefore = first;
+    }
+
+    /**
+     * @return the index of the first excerpt which can be read, 0 unless punchHolesBefore() has freed the ones before.
+     */
+    public long firstIndex() {
+        long size = size();
+        if (size == 0 || getIndexData(1) != 0)
+            return 0;
+        // the index segments freed are all zero, and the one with the last entry is never freed.
+        long segmentEntries = indexEntries(1L << indexBitSize);
+        long lo = 0, hi = size / segmentEntries;
+        while (hi - lo > 1) {
+            long mid = (lo + hi) >>> 1;
+            if (getIndexData(mid * segmentEntries) != 0)
+                hi = mid;
+            else
+                lo = mid;
+        }
+        return hi * segmentEntries;
+    }
+
+    /**
+     * Free the disk space of the oldest excerpts in a background thread, so the Chronicle can run indefinitely in
+     * bounded disk space.  Excerpts are freed once there are at least maxExcerpts after them, once keeping them would
+     * take the index and data over maxBytes, or once they were added more than maxAgeMS ago, which needs a timeIndex().
+     * <p/>
+     * The holes are punched by punchHolesBefore(), so whole segments are freed and up to a segment of each file more
+     * than the limits is kept.
+     *
+     * @param maxExcerpts   the excerpts to keep, or 0 for no limit.
+     * @param maxBytes      the most bytes of index and data to keep, or 0 for no limit.
+     * @param maxAgeMS      the age of the oldest excerpt to keep, or 0 for no limit.
+     * @param checkPeriodMS how often to check for excerpts to free.
+     */
+    public void retention(final long maxExcerpts, final long maxBytes, final long maxAgeMS, long checkPeriodMS) {
+        RetentionManager retention;
+        synchronized (this) {
+            retention = this.retention;
+            this.retention = null;
+        }
+        if (retention != null)
+            retention.stop();
+        if (maxExcerpts <= 0 && maxBytes <= 0 && maxAgeMS <= 0)
+            return;
+        if (checkPeriodMS <= 0)
+            throw new IllegalArgumentException("checkPeriodMS must be positive");
+        checkWritable();
+        if (maxAgeMS > 0 && timeIndex == null)
+            throw new IllegalStateException("A retention age requires a timeIndex()");
+        retention = new RetentionManager(name(), new Runnable() {
+            @Override
+            public void run() {
+                retainExcerpts(maxExcerpts, maxBytes, maxAgeMS);
+            }
+        }, checkPeriodMS);
+        synchronized (this) {
+            this.retention = retention;
+        }
+    }
+
+    /**
+     * Free the oldest excerpts now, as retention() does in the background.
+     *
+     * @param maxExcerpts the excerpts to keep, or 0 for no limit.
+     * @param maxBytes    the most bytes of index and data to keep, or 0 for no limit.
+     * @param maxAgeMS    the age of the oldest excerpt to keep, or 0 for no limit.
+     * @return the index of the first excerpt kept.
+     */
+    public long retainExcerpts(long maxExcerpts, long maxBytes, long maxAgeMS) {
+        long size = size(), keep = 0;
+        if (maxExcerpts > 0)
+            keep = Math.max(keep, size - maxExcerpts);
+        if (maxBytes > 0) {
+            // the last index which would take the excerpts kept over maxBytes.
+            long lo = -1, hi = size, dataEnd = getIndexData(size) & ~UNCOMMITTED, indexEnd = indexOffset(size);
+            while (hi - lo > 1) {
+                long mid = (lo + hi) >>> 1;
+                if (dataEnd - (getIndexData(mid) & ~UNCOMMITTED) + indexEnd - indexOffset(mid) <= maxBytes)
+                    hi = mid;
+                else
+                    lo = mid;
+            }
+            keep = Math.max(keep, hi);
+        }
+        if (maxAgeMS > 0) {
+            TimeIndex timeIndex = this.timeIndex;
+            if (timeIndex == null)
+                throw new IllegalStateException("A retention age requires a timeIndex()");
+            keep = Math.max(keep, timeIndex.firstIndexFor(System.currentTimeMillis() - maxAgeMS));
+        }
+        return punchHolesBefore(keep);
+    }
+
+    /**
+     * Remove the excerpts from size onwards by clearing their index entries.
+     *
+     * @param size      the number of excerpts to keep
+     * @param lastEntry the last index entry which might be set.
+     */
+    void truncate(long size, long lastEntry) {
+        checkWritable();
+        // clear from the end so the entries left are always a consistent prefix.
+        for (long i = lastEntry; i > size; i--)
+            setIndexData(i, 0);
+        this.size = lastWrittenSize = size;
+        if (header != null) {
+            header.putLong(HEADER_CLAIM, size);
+            header.putLong(HEADER_COMMITTED, size);
+        }
+        // the times of the excerpts removed would point readers past the end.
+        if (timeIndex != null) {
+            timeIndex.truncate(size);
+        } else if (new File(basePath + ".time").exists()) {
+            try {
+                TimeIndex timeIndex = new TimeIndex(basePath + ".time", Integer.MAX_VALUE, Long.MAX_VALUE, false);
+                timeIndex.truncate(size);
+                timeIndex.close();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    @Override
+    public long size() {
+        if (readOnly)
+            return writtenSize();
+        return concurrentAppends ? headerLong(HEADER_COMMITTED) : size;
+    }
+
+    /**
+     * Entries are only added, so rather than search the whole index each time, look forward from the last size found.
+     * The file size is only checked when the index might have grown past it.
+     *
+     * @return the excerpts written so far, possibly by another process.
+     */
+    long writtenSize() {
+        long lo = lastWrittenSize, capacity = lastIndexCapacity;
+        if (lo + 1 >= capacity)
+            capacity = lastIndexCapacity = indexCapacity();
+        if (lo + 1 >= capacity || getIndexData(lo + 1) == 0)
+            return lo;
+        // double the step until an entry hasn't been written, then binary search back.
+        long hi, step = 1;
+        lo++;
+        while (true) {
+            hi = lo + step;
+            if (hi >= capacity)
+                capacity = lastIndexCapacity = indexCapacity();
+            if (hi >= capacity) {
+                hi = capacity;
+                break;
+            }
+            if (getIndexData(hi) == 0)
+                break;
+            lo = hi;
+            step <<= 1;
+        }
+        while (hi - lo > 1) {
+            long mid = (lo + hi) >>> 1;
+            if (getIndexData(mid) == 0)
+                hi = mid;
+            else
+                lo = mid;
+        }
+        return lastWrittenSize = lo;
     }
 
     /**
@@ -298,19 +1304,115 @@ public class IndexedChronicle extends AbstractChronicle {
      * Added for testing purposes.
      */
     public void clear() {
-        size = 0;
+        checkWritable();
+        size = lastWrittenSize = 0;
+        if (header != null) {
+            header.putLong(HEADER_CLAIM, 0);
+            header.putLong(HEADER_COMMITTED, 0);
+        } else {
+            //noinspection ResultOfMethodCallIgnored
+            new File(basePath + ".header").delete();
+        }
+        if (timeIndex != null)
+            timeIndex.clear();
+        else
+            //noinspection ResultOfMethodCallIgnored
+            new File(basePath + ".time").delete();
         setIndexData(1, 0);
+        // start the window again from the start of the files.
+        if (prefaulter != null) {
+            stopPrefaulter();
+            prefaulter = new Prefaulter(this, preFaultWindow);
+        }
+        requestedIndexId.set(-1);
+        requestedDataId.set(-1);
     }
 
     public void close() {
+        retention(0, 0, 0, 0);
+        groupCommit(0, 0);
+        stopMapper();
+        stopReader();
+        stopPrefaulter();
+        concurrentAppends = false;
+        closeHeader();
+        closeReaderWakeup();
+        if (timeIndex != null)
+            timeIndex.close();
+        timeIndex = null;
         try {
-            clearAll(indexChannel, indexBuffers);
+            clearAll(indexChannel, indexCache != null ? indexCache.clear() : indexBuffers);
         } finally {
-            clearAll(dataChannel, dataBuffers);
+            clearAll(dataChannel, dataCache != null ? dataCache.clear() : dataBuffers);
+        }
+        indexBuffers = dataBuffers = new MappedByteBuffer[0];
+    }
+
+    private synchronized void closeReaderWakeup() {
+        wakeReaders = false;
+        if (readerWakeup != null)
+            readerWakeup.close();
+        readerWakeup = null;
+    }
+
+    private void closeHeader() {
+        if (header != null)
+            MappedBuffers.unmap(header);
+        header = null;
+        if (headerChannel != null)
+            try {
+                headerChannel.close();
+            } catch (IOException ignored) {
+            }
+        headerChannel = null;
+    }
+
+    private void stopMapper() {
+        if (mapper == null)
+            return;
+        mapper.shutdown();
+        try {
+            mapper.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mapper = null;
+        unmapSegment(nextIndexSegment);
+        unmapSegment(nextDataSegment);
+        requestedIndexId.set(-1);
+        requestedDataId.set(-1);
+    }
+
+    private void stopReader() {
+        ExecutorService reader;
+        synchronized (this) {
+            reader = this.reader;
+            this.reader = null;
+        }
+        if (reader == null)
+            return;
+        reader.shutdownNow();
+        try {
+            reader.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
-    private void clearAll(FileChannel channel, List<MappedByteBuffer> buffers) {
+    private void stopPrefaulter() {
+        Prefaulter prefaulter = this.prefaulter;
+        this.prefaulter = null;
+        if (prefaulter != null)
+            prefaulter.stop();
+    }
+
+    private static void unmapSegment(AtomicReference<MappedSegment> nextSegment) {
+        MappedSegment segment = nextSegment.getAndSet(null);
+        if (segment != null)
+            MappedBuffers.unmap(segment.buffer);
+    }
+
+    private void clearAll(FileChannel channel, MappedByteBuffer[] buffers) {
         try {
             for (MappedByteBuffer buffer : buffers) {
                 if (buffer != null) {
@@ -323,10 +1425,22 @@ public class IndexedChronicle extends AbstractChronicle {
             } catch (IOException ignored) {
             }
             for (MappedByteBuffer buffer : buffers) {
-                if (buffer instanceof DirectBuffer)
-                    ((DirectBuffer) buffer).cleaner().clean();
+                if (buffer != null)
+                    MappedBuffers.unmap(buffer);
             }
         }
-        buffers.clear();
+    }
+
+    static final class MappedSegment {
+        final int id;
+        final MappedByteBuffer buffer;
+        // used by SegmentCache
+        long lastUsed;
+        final AtomicInteger refCount = new AtomicInteger(1);
+
+        MappedSegment(int id, MappedByteBuffer buffer) {
+            this.id = id;
+            this.buffer = buffer;
+        }
     }
 }
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2013 Peter Lawrey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.higherfrequencytrading.chronicle.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Chronicle with a compact index for up to 1 TB of data.
+ * <p/>
+ * Each index entry is 5 bytes, packed 12 to a 64 byte block so an entry never spans a cache line.  An entry is read
+ * with a single 8 byte load and a mask, and written by replacing the 8 bytes around it in one store.
+ *
+ * @author peter.lawrey
+ */
+public class Int40IndexedChronicle extends IndexedChronicle {
+    static final int ENTRIES_PER_BLOCK = 12;
+    static final int ENTRY_SIZE = 5;
+    static final int BLOCK_BITS = 6;
+    private static final long INT40_MASK = (1L << 40) - 1;
+
+    public Int40IndexedChronicle(String basePath) throws IOException {
+        super(basePath);
+    }
+
+    public Int40IndexedChronicle(String basePath, int dataBitSizeHint) throws IOException {
+        super(basePath, dataBitSizeHint);
+    }
+
+    public Int40IndexedChronicle(String basePath, int dataBitSizeHint, ByteOrder byteOrder) throws IOException {
+        super(basePath, dataBitSizeHint, byteOrder);
+    }
+
+    @Override
+    protected long indexOffset(long indexId) {
+        long block = indexId / ENTRIES_PER_BLOCK;
+        int entry = (int) (indexId - block * ENTRIES_PER_BLOCK);
+        return (block << BLOCK_BITS) + entry * ENTRY_SIZE;
+    }
+
+    @Override
+    protected long indexEntries(long indexFileSize) {
+        return (indexFileSize >>> BLOCK_BITS) * ENTRIES_PER_BLOCK;
+    }
+
+    @Override
+    public void concurrentAppends(boolean concurrentAppends) {
+        if (concurrentAppends)
+            throw new IllegalStateException("Concurrent appends require an 8 byte index in the native byte order");
+    }
+
+    @Override
+    public long getIndexData(long indexId) {
+        long indexOffset = indexOffset(indexId);
+        ByteBuffer indexBuffer = acquireIndexBuffer(indexOffset);
+        long word = indexBuffer.getLong((int) (indexOffset & indexLowMask));
+        return littleEndian() ? word & INT40_MASK : word >>> 24;
+    }
+
+    @Override
+    public boolean uncommittedEntries() {
+        return false;
+    }
+
+    @Override
+    public void setIndexData(long indexId, long indexData) {
+        if (indexData > INT40_MASK)
+            throw new IllegalStateException("Size of Chronicle too large > 1 TB");
+        long indexOffset = indexOffset(indexId);
+        ByteBuffer indexBuffer = acquireIndexBuffer(indexOffset);
+        int position = (int) (indexOffset & indexLowMask);
+        // the 8 bytes are in the same block so this is one store and readers never see half an entry.
+        long word = indexBuffer.getLong(position);
+        word = littleEndian()
+                ? (word & ~INT40_MASK) | indexData
+                : (word & (INT40_MASK >>> 16)) | (indexData << 24);
+        indexBuffer.putLong(position, word);
+    }
+
+    // called by the super constructor before any fields are set.
+    private boolean littleEndian() {
+        return byteOrder() == ByteOrder.LITTLE_ENDIAN;
+    }
+}
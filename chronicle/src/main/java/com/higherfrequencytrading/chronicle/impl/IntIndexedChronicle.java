@@ -52,6 +52,11 @@ public class IntIndexedChronicle extends IndexedChronicle {
         return indexBuffer.getInt((int) (indexOffset & indexLowMask)) & LONG_MASK;
     }
 
+    @Override
+    public boolean uncommittedEntries() {
+        return false;
+    }
+
     @Override
     public void setIndexData(long indexId, long indexData) {
         if (indexData >= (1L << 32))
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2013 Peter Lawrey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.higherfrequencytrading.chronicle.impl;
+
+import sun.misc.Unsafe;
+import sun.nio.ch.DirectBuffer;
+
+import java.lang.reflect.Field;
+import java.nio.MappedByteBuffer;
+
+/**
+ * Low level operations on memory mapped segments.
+ *
+ * @author peter.lawrey
+ */
+enum MappedBuffers {
+    ;
+
+    /**
+     * Touch every page of a buffer for writing so the page faults (and any file system block allocation) happen in the
+     * calling thread rather than the thread which writes to it later.
+     * <p/>
+     * A compare and swap of 0 with 0 is a write access which never changes the data, so this is safe to do while other
+     * threads are reading or writing the same pages.
+     *
+     * @param buffer to touch
+     * @param from   first byte in the buffer to touch.
+     * @param to     last byte (exclusive) in the buffer to touch
+     */
+    static void touch(MappedByteBuffer buffer, int from, int to) {
+        long address = ((DirectBuffer) buffer).address();
+        int pageSize = UNSAFE.pageSize();
+        for (int i = from & ~(pageSize - 1); i < to; i += pageSize)
+            UNSAFE.compareAndSwapInt(null, address + i, 0, 0);
+    }
+
+    /**
+     * Read every page of a buffer so it is loaded into memory without writing to it.
+     *
+     * @param buffer to load
+     * @param from   first byte in the buffer to load.
+     * @param to     last byte (exclusive) in the buffer to load
+     * @return a value which depends on every page read, so the reads can't be optimised away.
+     */
+    static int load(MappedByteBuffer buffer, int from, int to) {
+        long address = ((DirectBuffer) buffer).address();
+        int pageSize = UNSAFE.pageSize();
+        int sum = 0;
+        for (int i = from & ~(pageSize - 1); i < to; i += pageSize)
+            sum += UNSAFE.getByte(address + i);
+        return sum;
+    }
+
+    /**
+     * Read a long in the native byte order with a volatile read so it sees the latest value written by any thread or
+     * process.
+     *
+     * @param buffer to read
+     * @param offset in the buffer, this must be 8 byte aligned.
+     * @return the value.
+     */
+    static long getLongVolatile(MappedByteBuffer buffer, int offset) {
+        return UNSAFE.getLongVolatile(null, ((DirectBuffer) buffer).address() + offset);
+    }
+
+    /**
+     * Atomically replace a long in a buffer in the native byte order. This is atomic across processes mapping the same
+     * file as well as across threads.
+     *
+     * @param buffer   to update
+     * @param offset   in the buffer, this must be 8 byte aligned.
+     * @param expected value
+     * @param value    to set if it was the expected value
+     * @return true if it was updated.
+     */
+    static boolean compareAndSwapLong(MappedByteBuffer buffer, int offset, long expected, long value) {
+        return UNSAFE.compareAndSwapLong(null, ((DirectBuffer) buffer).address() + offset, expected, value);
+    }
+
+    /**
+     * Read an int in the native byte order with a volatile read.
+     *
+     * @param buffer to read
+     * @param offset in the buffer, this must be 4 byte aligned.
+     * @return the value.
+     */
+    static int getIntVolatile(MappedByteBuffer buffer, int offset) {
+        return UNSAFE.getIntVolatile(null, ((DirectBuffer) buffer).address() + offset);
+    }
+
+    /**
+     * Atomically add to an int in a buffer in the native byte order, across processes as well as threads.
+     *
+     * @param buffer to update
+     * @param offset in the buffer, this must be 4 byte aligned.
+     * @param delta  to add
+     * @return the value after adding.
+     */
+    static int addAndGetInt(MappedByteBuffer buffer, int offset, int delta) {
+        long address = ((DirectBuffer) buffer).address() + offset;
+        int value;
+        do {
+            value = UNSAFE.getIntVolatile(null, address);
+        } while (!UNSAFE.compareAndSwapInt(null, address, value, value + delta));
+        return value + delta;
+    }
+
+    /**
+     * @param buffer a memory mapping
+     * @return the address of its first byte.
+     */
+    static long address(MappedByteBuffer buffer) {
+        return ((DirectBuffer) buffer).address();
+    }
+
+    /**
+     * Release the memory mapping now rather than waiting for a GC. The buffer must not be accessed afterwards.
+     *
+     * @param buffer to unmap
+     */
+    static void unmap(MappedByteBuffer buffer) {
+        if (buffer instanceof DirectBuffer)
+            ((DirectBuffer) buffer).cleaner().clean();
+    }
+
+    /**
+     * *** Access the Unsafe class *****
+     */
+    @SuppressWarnings("ALL")
+    private static final Unsafe UNSAFE;
+
+    static {
+        try {
+            @SuppressWarnings("ALL")
+            Field theUnsafe = Unsafe.class.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            UNSAFE = (Unsafe) theUnsafe.get(null);
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2013 Peter Lawrey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.higherfrequencytrading.chronicle.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Faults in the pages ahead of the appenders of a Chronicle from a background thread.  The appenders hand over the
+ * window to pre-fault by raising a target without locking, and only wake the thread when they raise it.
+ *
+ * @author peter.lawrey
+ */
+final class Prefaulter implements Runnable {
+    private static final Logger logger = Logger.getLogger(Prefaulter.class.getName());
+
+    private final IndexedChronicle chronicle;
+    private final int window;
+    private final Thread thread;
+    private volatile boolean running = true;
+    // where the appender was when it last raised the targets.
+    private volatile long indexStart = 0;
+    private volatile long dataStart = 0;
+    // concurrent appenders raise the targets with a CAS.
+    private final AtomicLong indexTarget = new AtomicLong();
+    private final AtomicLong dataTarget = new AtomicLong();
+    // only used by the prefaulter thread.
+    private long indexDone = 0;
+    private long dataDone = 0;
+
+    Prefaulter(IndexedChronicle chronicle, int window) {
+        this.chronicle = chronicle;
+        this.window = window;
+        thread = new Thread(this, chronicle.name() + "-prefaulter");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Called by an appender with the end of the excerpt it is about to write. Once it is half way through the window
+     * requested so far, ask for the next half to be pre-faulted.
+     *
+     * @param indexEnd the end of the index entry in the index file.
+     * @param dataEnd  the end of the excerpt in the data file.
+     */
+    void request(long indexEnd, long dataEnd) {
+        if (indexEnd + window / 2 <= indexTarget.get() && dataEnd + window / 2 <= dataTarget.get())
+            return;
+        indexStart = indexEnd;
+        dataStart = dataEnd;
+        if (raise(indexTarget, indexEnd + window) | raise(dataTarget, dataEnd + window))
+            LockSupport.unpark(thread);
+    }
+
+    private static boolean raise(AtomicLong target, long to) {
+        long current;
+        while (to > (current = target.get()))
+            if (target.compareAndSet(current, to))
+                return true;
+        return false;
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            long indexTo = indexTarget.get();
+            long dataTo = dataTarget.get();
+            if (indexTo <= indexDone && dataTo <= dataDone) {
+                // a request made since the check leaves a permit, so this returns at once.
+                LockSupport.park(this);
+                continue;
+            }
+            try {
+                chronicle.preFault(Math.max(indexDone, indexStart), indexTo, Math.max(dataDone, dataStart), dataTo);
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "Failed to pre-fault " + chronicle.name(), e);
+            }
+            indexDone = indexTo;
+            dataDone = dataTo;
+        }
+    }
+
+    /**
+     * Stop the thread once it has finished the pages it is faulting in.
+     */
+    void stop() {
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
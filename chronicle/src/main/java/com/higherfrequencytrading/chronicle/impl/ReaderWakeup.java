@@ -0,0 +1,120 @@
+/*
+ * Copyright 2013 Peter Lawrey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.higherfrequencytrading.chronicle.impl;
+
+import com.higherfrequencytrading.chronicle.WaitStrategy;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A sequence in a memory mapped basePath.notify file which the appender of a Chronicle increments after each excerpt,
+ * and wakes any readers waiting on it with a futex, in this process or another.
+ * <p/>
+ * The appender only makes the futex call when the count of readers waiting is non-zero, so it costs an atomic increment
+ * per excerpt otherwise.  A reader which dies while waiting leaves the count raised, which costs the appender a wake up
+ * call per excerpt until the file is deleted.
+ *
+ * @author peter.lawrey
+ */
+final class ReaderWakeup {
+    private static final int SEQUENCE = 0;
+    private static final int WAITERS = 4;
+    private static final int SIZE = 64;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final long sequenceAddress;
+
+    ReaderWakeup(String path) throws IOException {
+        channel = new RandomAccessFile(path, "rw").getChannel();
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, SIZE);
+        buffer.order(ByteOrder.nativeOrder());
+        sequenceAddress = MappedBuffers.address(buffer) + SEQUENCE;
+    }
+
+    int sequence() {
+        return MappedBuffers.getIntVolatile(buffer, SEQUENCE);
+    }
+
+    /**
+     * Called by the appender after an excerpt is visible to readers.
+     */
+    void excerptAdded() {
+        // both the increment and the waiter's are full barriers, so either this sees the waiter or it sees the change.
+        MappedBuffers.addAndGetInt(buffer, SEQUENCE, 1);
+        if (MappedBuffers.getIntVolatile(buffer, WAITERS) > 0)
+            Futex.wake(sequenceAddress);
+    }
+
+    /**
+     * Wait until the sequence is no longer the one given.
+     *
+     * @param sequence     read before the reader last polled for an excerpt.
+     * @param timeoutNanos the longest to wait, as the appender might not wake readers.
+     */
+    void await(int sequence, long timeoutNanos) {
+        MappedBuffers.addAndGetInt(buffer, WAITERS, 1);
+        try {
+            if (sequence() == sequence)
+                Futex.await(sequenceAddress, sequence, timeoutNanos);
+        } finally {
+            MappedBuffers.addAndGetInt(buffer, WAITERS, -1);
+        }
+    }
+
+    void close() {
+        MappedBuffers.unmap(buffer);
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Spins, then waits to be woken by the appender.  The sequence is read before the last poll, so an excerpt added
+     * after the poll always wakes it.
+     */
+    static final class FutexWaitStrategy implements WaitStrategy {
+        private final ReaderWakeup wakeup;
+        private final int spins;
+        private final long maxWaitNanos;
+        private int sequence;
+
+        FutexWaitStrategy(ReaderWakeup wakeup, int spins, long maxWaitNanos) {
+            this.wakeup = wakeup;
+            this.spins = spins;
+            this.maxWaitNanos = maxWaitNanos;
+        }
+
+        @Override
+        public void idle(int count) {
+            if (count < spins)
+                return;
+            // poll once more after reading it.
+            if (count == spins) {
+                sequence = wakeup.sequence();
+                return;
+            }
+            wakeup.await(sequence, maxWaitNanos);
+            sequence = wakeup.sequence();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2013 Peter Lawrey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.higherfrequencytrading.chronicle.impl;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Applies the retention policy of a Chronicle from a background thread, deleting the oldest cycles of a
+ * RollingIndexedChronicle or punching holes before the oldest excerpts kept by an IndexedChronicle.
+ *
+ * @author peter.lawrey
+ */
+final class RetentionManager implements Runnable {
+    private static final Logger logger = Logger.getLogger(RetentionManager.class.getName());
+
+    private final String name;
+    private final Runnable policy;
+    private final long periodNanos;
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    RetentionManager(String name, Runnable policy, long periodMS) {
+        this.name = name;
+        this.policy = policy;
+        this.periodNanos = TimeUnit.MILLISECONDS.toNanos(periodMS);
+        thread = new Thread(this, name + "-retention");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                policy.run();
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "Failed to apply the retention policy of " + name, e);
+            }
+            LockSupport.parkNanos(this, periodNanos);
+        }
+    }
+
+    void stop() {
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,688 @@
+/*
+ * Copyright 2013 Peter Lawrey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.higherfrequencytrading.chronicle.impl;
+
+import com.higherfrequencytrading.chronicle.Chronicle;
+import com.higherfrequencytrading.chronicle.EnumeratedMarshaller;
+import com.higherfrequencytrading.chronicle.Excerpt;
+import com.higherfrequencytrading.chronicle.tools.ChronicleTools;
+
+import java.io.*;
+import java.nio.ByteOrder;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+
+/**
+ * A Chronicle made of a series of IndexedChronicle cycles.  A new cycle, i.e. a new pair of index and data files, is
+ * started when the cycle length has passed and/or the current cycle has reached a data size.
+ * <p/>
+ * The index of an excerpt is the cycle in the top bits and the index within the cycle in the bottom LOCAL_INDEX_BITS.
+ * Excerpts move from the end of one cycle to the start of the next with nextIndex(), including cycles started by a
+ * writer in another process.
+ * <p/>
+ * A time based cycle rolls at the end of the period it was started in, even if the writer was restarted.  The start
+ * time of each cycle is kept in -{cycle}.start
+ * <p/>
+ * Cycles are written one at a time, so old cycles can be closed or deleted while the writer continues to append.  Each
+ * excerpt holds a reference to the cycle it is in, and a cycle is only unmapped, and its files deleted, once no excerpt
+ * refers to it.
+ *
+ * @author peter.lawrey
+ */
+public class RollingIndexedChronicle implements Chronicle {
+    public static final int LOCAL_INDEX_BITS = 40;
+    public static final long LOCAL_INDEX_MASK = (1L << LOCAL_INDEX_BITS) - 1;
+    private static final Logger logger = Logger.getLogger(RollingIndexedChronicle.class.getName());
+
+    private final String basePath;
+    private final String name;
+    private final int dataBitSizeHint;
+    private final long cycleLengthMS;
+    private final long cycleSizeBytes;
+    // the cycles which are currently open.
+    private final TreeMap<Integer, Cycle> cycles = new TreeMap<Integer, Cycle>();
+    private final Map<Class<?>, EnumeratedMarshaller<?>> marshallerMap = new LinkedHashMap<Class<?>, EnumeratedMarshaller<?>>();
+    private volatile int firstCycle;
+    private volatile int lastCycle;
+    private boolean useUnsafe = false;
+    private boolean multiThreaded = false;
+    // used by the writer.
+    private volatile Cycle writeCycle = null;
+    private long nextRollTime = Long.MAX_VALUE;
+    // used if a retention policy is set.
+    private RetentionManager retention = null;
+
+    /**
+     * @param basePath       of the cycles, each cycle adds -{cycle}.index and -{cycle}.data
+     * @param cycleLengthMS  the time after which a new cycle is started or 0 for no time based rolling, e.g. 24 * 60 * 60 * 1000L for daily
+     * @param cycleSizeBytes the data size after which a new cycle is started or 0 for no size based rolling.
+     * @throws IOException if the first cycle could not be opened.
+     */
+    public RollingIndexedChronicle(String basePath, long cycleLengthMS, long cycleSizeBytes) throws IOException {
+        this(basePath, ChronicleTools.is64Bit() ? IndexedChronicle.DEFAULT_DATA_BITS_SIZE : IndexedChronicle.DEFAULT_DATA_BITS_SIZE32, cycleLengthMS, cycleSizeBytes);
+    }
+
+    public RollingIndexedChronicle(String basePath, int dataBitSizeHint, long cycleLengthMS, long cycleSizeBytes) throws IOException {
+        this.basePath = basePath;
+        this.name = new File(basePath).getName();
+        this.dataBitSizeHint = dataBitSizeHint;
+        this.cycleLengthMS = cycleLengthMS;
+        this.cycleSizeBytes = cycleSizeBytes;
+
+        File dir = new File(basePath).getAbsoluteFile().getParentFile();
+        //noinspection ResultOfMethodCallIgnored
+        dir.mkdirs();
+        int first = Integer.MAX_VALUE, last = -1;
+        String[] names = dir.list();
+        if (names != null)
+            for (String fileName : names) {
+                int cycle = parseCycle(fileName);
+                if (cycle < 0) continue;
+                first = Math.min(first, cycle);
+                last = Math.max(last, cycle);
+            }
+        if (last < 0) {
+            first = last = 0;
+            logger.info(basePath + " created.");
+        } else {
+            logger.info(basePath + ", cycles " + first + " to " + last);
+        }
+        firstCycle = first;
+        lastCycle = last;
+        // make sure the latest cycle exists so the excerpts always have something to point to.
+        releaseCycle(acquireCycle(last, true));
+    }
+
+    private int parseCycle(String fileName) {
+        String prefix = name + '-';
+        if (!fileName.startsWith(prefix) || !fileName.endsWith(".index"))
+            return -1;
+        try {
+            return Integer.parseInt(fileName.substring(prefix.length(), fileName.length() - ".index".length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    public static long index(int cycle, long localIndex) {
+        return ((long) cycle << LOCAL_INDEX_BITS) | localIndex;
+    }
+
+    public static int cycle(long index) {
+        return (int) (index >>> LOCAL_INDEX_BITS);
+    }
+
+    public static long localIndex(long index) {
+        return index & LOCAL_INDEX_MASK;
+    }
+
+    public String cyclePath(int cycle) {
+        return basePath + '-' + cycle;
+    }
+
+    public int firstCycle() {
+        return firstCycle;
+    }
+
+    public int lastCycle() {
+        return lastCycle;
+    }
+
+    /**
+     * Look for cycles started by a writer in another process.
+     *
+     * @return the last cycle.
+     */
+    int findNewCycles() {
+        int last = lastCycle;
+        while (new File(cyclePath(last + 1) + ".index").exists())
+            last++;
+        synchronized (this) {
+            if (last > lastCycle)
+                lastCycle = last;
+            return lastCycle;
+        }
+    }
+
+    /**
+     * Open a cycle, or add a reference to it if it is open already.  Every cycle acquired must be released.
+     *
+     * @param cycle  to open
+     * @param create if it doesn't exist already.
+     * @return the cycle or null if it is not present.
+     */
+    synchronized Cycle acquireCycle(int cycle, boolean create) {
+        Cycle c = cycles.get(cycle);
+        if (c != null && !c.deleted) {
+            // no longer closed if it is used again.
+            c.closed = false;
+            c.references++;
+            return c;
+        }
+        if (!create && (cycle < firstCycle || cycle > lastCycle || !new File(cyclePath(cycle) + ".index").exists()))
+            return null;
+        IndexedChronicle ic;
+        try {
+            ic = new IndexedChronicle(cyclePath(cycle), dataBitSizeHint);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        ic.useUnsafe(useUnsafe);
+        ic.multiThreaded(multiThreaded);
+        for (EnumeratedMarshaller<?> marshaller : marshallerMap.values())
+            ic.setEnumeratedMarshaller(marshaller);
+        c = new Cycle(cycle, ic);
+        c.references++;
+        cycles.put(cycle, c);
+        return c;
+    }
+
+    /**
+     * @return the first cycle which has not been deleted.
+     */
+    synchronized Cycle acquireFirstCycle() {
+        for (int cycle = firstCycle; cycle < lastCycle; cycle++) {
+            Cycle c = acquireCycle(cycle, false);
+            if (c != null)
+                return c;
+        }
+        return acquireCycle(lastCycle, true);
+    }
+
+    /**
+     * Remove a reference to a cycle.  If it was closed or deleted while in use, this unmaps it.
+     *
+     * @param cycle acquired earlier.
+     */
+    void releaseCycle(Cycle cycle) {
+        synchronized (this) {
+            if (--cycle.references > 0 || !(cycle.closed || cycle.deleted) || cycles.get(cycle.cycle) != cycle)
+                return;
+            cycles.remove(cycle.cycle);
+        }
+        unmap(cycle);
+    }
+
+    private void unmap(Cycle cycle) {
+        cycle.chronicle.close();
+        if (cycle.deleted)
+            deleteCycleFiles(cycle.cycle);
+    }
+
+    /**
+     * Holds the same lock as closing and deleting cycles, so a cycle can't be retired while the writer moves on.
+     *
+     * @return the cycle to write to, starting a new one if required.
+     */
+    synchronized Cycle acquireWriteCycle() {
+        Cycle write = writeCycle;
+        if (write == null) {
+            int cycle = lastCycle;
+            write = writeCycle = acquireCycle(cycle, true);
+            // continue from when this cycle was started, it may already be due to roll.
+            nextRollTime = nextRollTime(write.chronicle.size() > 0 ? cycleStartTime(cycle) : startCycle(cycle));
+        }
+        IndexedChronicle ic = write.chronicle;
+        if (ic.size() > 0 &&
+                ((cycleLengthMS > 0 && System.currentTimeMillis() >= nextRollTime) ||
+                        (cycleSizeBytes > 0 && ic.getIndexData(ic.size()) >= cycleSizeBytes))) {
+            int cycle = lastCycle + 1;
+            Cycle next = writeCycle = acquireCycle(cycle, true);
+            nextRollTime = nextRollTime(startCycle(cycle));
+            // readers can now move on to the new cycle.
+            lastCycle = cycle;
+            releaseCycle(write);
+            write = next;
+        }
+        return write;
+    }
+
+    private long nextRollTime(long startTime) {
+        return cycleLengthMS > 0 ? (startTime / cycleLengthMS + 1) * cycleLengthMS : Long.MAX_VALUE;
+    }
+
+    /**
+     * Record that the writer has started using a cycle now.
+     *
+     * @return the start time.
+     */
+    private long startCycle(int cycle) {
+        long now = System.currentTimeMillis();
+        File file = new File(cyclePath(cycle) + ".start");
+        try {
+            DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+            try {
+                out.writeLong(now);
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            logger.warning("Unable to write " + file + " " + e);
+        }
+        return now;
+    }
+
+    /**
+     * @return the time the writer started using a cycle.
+     */
+    private long cycleStartTime(int cycle) {
+        File file = new File(cyclePath(cycle) + ".start");
+        if (file.length() >= 8)
+            try {
+                DataInputStream in = new DataInputStream(new FileInputStream(file));
+                try {
+                    return in.readLong();
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                logger.warning("Unable to read " + file + " " + e);
+            }
+        // written without a start time, it was started no later than it was last written.
+        return cycleLastModified(cycle);
+    }
+
+    /**
+     * Unmap a cycle. It will be re-opened if an excerpt accesses it again.  If an excerpt is still in this cycle, it is
+     * unmapped when the last one moves on.
+     *
+     * @param cycle to close
+     */
+    public void closeCycle(int cycle) {
+        Cycle c;
+        synchronized (this) {
+            if (cycle >= lastCycle)
+                throw new IllegalArgumentException("Cannot close the current cycle " + cycle);
+            c = cycles.get(cycle);
+            if (c == null)
+                return;
+            c.closed = true;
+            if (c.references > 0)
+                return;
+            cycles.remove(cycle);
+        }
+        unmap(c);
+    }
+
+    /**
+     * Close and delete the files of all the cycles before this one.  The writer is not affected.  A cycle an excerpt is
+     * still in can be read until the last one moves on, when it is unmapped and its files are deleted.
+     *
+     * @param cycle the first cycle to keep.
+     */
+    public void deleteCyclesBefore(int cycle) {
+        if (cycle > lastCycle)
+            throw new IllegalArgumentException("Cannot delete the current cycle " + lastCycle);
+        for (int c = firstCycle; c < cycle; c++) {
+            Cycle open;
+            synchronized (this) {
+                firstCycle = c + 1;
+                open = cycles.get(c);
+                if (open != null) {
+                    open.deleted = true;
+                    if (open.references > 0)
+                        continue;
+                    cycles.remove(c);
+                }
+            }
+            if (open == null)
+                deleteCycleFiles(c);
+            else
+                unmap(open);
+        }
+    }
+
+    private void deleteCycleFiles(int cycle) {
+        // including the header of concurrent appenders and the time index if the cycle had them.
+        for (String suffix : new String[]{".index", ".data", ".start", ".header", ".time"}) {
+            File file = new File(cyclePath(cycle) + suffix);
+            if (file.exists() && !file.delete())
+                logger.warning("Unable to delete " + file);
+        }
+    }
+
+    /**
+     * Delete the oldest cycles in a background thread so the Chronicle can run indefinitely in bounded disk space.  A
+     * cycle is deleted once the cycles after it have at least maxExcerpts, once it would take the cycles kept over
+     * maxBytes, or once it was last written more than maxAgeMS ago.  The current cycle is always kept, and the indexes
+     * of the excerpts kept don't change.
+     * <p/>
+     * Whole cycles are deleted, so the cycle size or length determines how precisely the limits are kept to.  A cycle
+     * an excerpt is still in is deleted when the last one moves on.
+     *
+     * @param maxExcerpts   the excerpts to keep, or 0 for no limit.
+     * @param maxBytes      the most bytes of index and data to keep, or 0 for no limit.
+     * @param maxAgeMS      the age of the oldest cycle to keep, or 0 for no limit.
+     * @param checkPeriodMS how often to check for cycles to delete.
+     */
+    public void retention(final long maxExcerpts, final long maxBytes, final long maxAgeMS, long checkPeriodMS) {
+        RetentionManager retention;
+        synchronized (this) {
+            retention = this.retention;
+            this.retention = null;
+        }
+        if (retention != null)
+            retention.stop();
+        if (maxExcerpts <= 0 && maxBytes <= 0 && maxAgeMS <= 0)
+            return;
+        if (checkPeriodMS <= 0)
+            throw new IllegalArgumentException("checkPeriodMS must be positive");
+        retention = new RetentionManager(name, new Runnable() {
+            @Override
+            public void run() {
+                retainCycles(maxExcerpts, maxBytes, maxAgeMS);
+            }
+        }, checkPeriodMS);
+        synchronized (this) {
+            this.retention = retention;
+        }
+    }
+
+    /**
+     * Delete the oldest cycles now, as retention() does in the background.
+     *
+     * @param maxExcerpts the excerpts to keep, or 0 for no limit.
+     * @param maxBytes    the most bytes of index and data to keep, or 0 for no limit.
+     * @param maxAgeMS    the age of the oldest cycle to keep, or 0 for no limit.
+     * @return the first cycle kept.
+     */
+    public int retainCycles(long maxExcerpts, long maxBytes, long maxAgeMS) {
+        int first = firstCycle, last = lastCycle;
+        long now = System.currentTimeMillis();
+        long excerpts = 0, bytes = 0;
+        int keep = first;
+        // the cycles from c onwards are kept, can the one before it be deleted?
+        for (int c = last; c > first; c--) {
+            excerpts += cycleSize(c);
+            bytes += cycleSizeInBytes(c);
+            if ((maxExcerpts > 0 && excerpts >= maxExcerpts)
+                    || (maxBytes > 0 && bytes + cycleSizeInBytes(c - 1) > maxBytes)
+                    || (maxAgeMS > 0 && now - cycleLastModified(c - 1) > maxAgeMS)) {
+                keep = c;
+                break;
+            }
+        }
+        if (keep > first)
+            deleteCyclesBefore(keep);
+        return keep;
+    }
+
+    private long cycleSize(int cycle) {
+        Cycle c = acquireCycle(cycle, false);
+        if (c == null)
+            return 0;
+        try {
+            // only the writer's size is kept up to date, the other cycles may have been written by another process.
+            return c == writeCycle ? c.chronicle.size() : c.chronicle.writtenSize();
+        } finally {
+            releaseCycle(c);
+        }
+    }
+
+    private long cycleSizeInBytes(int cycle) {
+        return new File(cyclePath(cycle) + ".index").length() + new File(cyclePath(cycle) + ".data").length();
+    }
+
+    private long cycleLastModified(int cycle) {
+        return Math.max(new File(cyclePath(cycle) + ".index").lastModified(), new File(cyclePath(cycle) + ".data").lastModified());
+    }
+
+    public void useUnsafe(boolean useUnsafe) {
+        this.useUnsafe = useUnsafe;
+        synchronized (this) {
+            for (Cycle c : cycles.values())
+                c.chronicle.useUnsafe(useUnsafe);
+        }
+    }
+
+    public boolean useUnsafe() {
+        return useUnsafe;
+    }
+
+    @Override
+    public String name() {
+        return name;
+    }
+
+    @Override
+    public Excerpt createExcerpt() {
+        return new RollingExcerpt(this);
+    }
+
+    /**
+     * @return the number of excerpts in the cycles which have not been deleted.
+     */
+    @Override
+    public long size() {
+        long size = 0;
+        for (int c = firstCycle, last = lastCycle; c <= last; c++)
+            size += cycleSize(c);
+        return size;
+    }
+
+    /**
+     * As the indexes are not contiguous, this is not the same as size().
+     *
+     * @return the index the next excerpt written will have.
+     */
+    public long endIndex() {
+        Cycle c = acquireCycle(lastCycle, true);
+        try {
+            return index(c.cycle, c.chronicle.size());
+        } finally {
+            releaseCycle(c);
+        }
+    }
+
+    @Override
+    public synchronized long sizeInBytes() {
+        long bytes = 0;
+        for (int c = firstCycle; c <= lastCycle; c++)
+            for (String suffix : new String[]{".index", ".data"})
+                bytes += new File(cyclePath(c) + suffix).length();
+        return bytes;
+    }
+
+    @Override
+    public ByteOrder byteOrder() {
+        return ByteOrder.nativeOrder();
+    }
+
+    @Override
+    public void close() {
+        retention(0, 0, 0, 0);
+        closeCycles();
+    }
+
+    private synchronized void closeCycles() {
+        // the excerpts can no longer be used, so the cycles deleted while in use can be deleted now.
+        for (Cycle c : cycles.values())
+            unmap(c);
+        cycles.clear();
+        writeCycle = null;
+    }
+
+    @Override
+    public void multiThreaded(boolean multiThreaded) {
+        this.multiThreaded = multiThreaded;
+        synchronized (this) {
+            for (Cycle c : cycles.values())
+                c.chronicle.multiThreaded(multiThreaded);
+        }
+    }
+
+    @Override
+    public synchronized <E> void setEnumeratedMarshaller(EnumeratedMarshaller<E> marshaller) {
+        marshallerMap.put(marshaller.classMarshaled(), marshaller);
+        for (Cycle c : cycles.values())
+            c.chronicle.setEnumeratedMarshaller(marshaller);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public synchronized <E> EnumeratedMarshaller<E> getMarshaller(Class<E> eClass) {
+        return (EnumeratedMarshaller<E>) marshallerMap.get(eClass);
+    }
+
+    /**
+     * An open cycle and the number of excerpts using it.  The fields are guarded by the RollingIndexedChronicle.
+     */
+    static final class Cycle {
+        final int cycle;
+        final IndexedChronicle chronicle;
+        int references = 0;
+        boolean closed = false;
+        boolean deleted = false;
+
+        Cycle(int cycle, IndexedChronicle chronicle) {
+            this.cycle = cycle;
+            this.chronicle = chronicle;
+        }
+    }
+
+    /**
+     * An Excerpt which delegates to an excerpt of the cycle it is currently in.  It holds a reference to that cycle
+     * until it moves to another one.
+     */
+    static class RollingExcerpt extends WrappedExcerpt {
+        private final RollingIndexedChronicle chronicle;
+        private Cycle cycle;
+        private int readAhead = 0;
+
+        RollingExcerpt(RollingIndexedChronicle chronicle) {
+            this(chronicle, chronicle.acquireFirstCycle());
+        }
+
+        private RollingExcerpt(RollingIndexedChronicle chronicle, Cycle cycle) {
+            super(cycle.chronicle.createExcerpt());
+            this.chronicle = chronicle;
+            this.cycle = cycle;
+        }
+
+        private boolean moveToCycle(int cycle) {
+            if (cycle == this.cycle.cycle)
+                return true;
+            Cycle next = chronicle.acquireCycle(cycle, false);
+            // started by a writer in another process?
+            if (next == null && cycle > chronicle.lastCycle() && cycle <= chronicle.findNewCycles())
+                next = chronicle.acquireCycle(cycle, false);
+            if (next == null)
+                return false;
+            switchTo(next);
+            return true;
+        }
+
+        private void switchTo(Cycle next) {
+            wrappedExcerpt(next.chronicle.createExcerpt());
+            Cycle previous = cycle;
+            cycle = next;
+            chronicle.releaseCycle(previous);
+        }
+
+        @Override
+        public Chronicle chronicle() {
+            return chronicle;
+        }
+
+        @Override
+        protected void wrappedExcerpt(Excerpt excerpt) {
+            super.wrappedExcerpt(excerpt);
+            if (readAhead > 0)
+                excerpt.readAhead(readAhead);
+        }
+
+        @Override
+        public void readAhead(int bytes) {
+            readAhead = bytes;
+            super.readAhead(bytes);
+        }
+
+        @Override
+        public boolean hasNextIndex() {
+            if (super.hasNextIndex())
+                return true;
+            // has the writer moved on to a later cycle?
+            return cycle.cycle < chronicle.lastCycle() || cycle.cycle < chronicle.findNewCycles();
+        }
+
+        @Override
+        public boolean nextIndex() {
+            if (super.nextIndex())
+                return true;
+            int lastCycle = chronicle.lastCycle();
+            // has a writer in another process moved on?
+            if (cycle.cycle >= lastCycle && cycle.cycle >= (lastCycle = chronicle.findNewCycles()))
+                return false;
+            // check again in case the last excerpt of this cycle was written before it rolled.
+            if (super.nextIndex())
+                return true;
+            for (int c = cycle.cycle + 1; c <= lastCycle; c++) {
+                if (moveToCycle(c)) {
+                    super.toStart();
+                    return super.nextIndex();
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public boolean index(long index) throws IndexOutOfBoundsException {
+            if (index == -1)
+                return moveToCycle(chronicle.firstCycle()) && super.index(-1);
+            if (index < 0)
+                throw new IndexOutOfBoundsException("index: " + index);
+            return moveToCycle(cycle(index)) && super.index(localIndex(index));
+        }
+
+        @Override
+        public long index() {
+            long index = super.index();
+            return index < 0 ? index : RollingIndexedChronicle.index(cycle.cycle, index);
+        }
+
+        @Override
+        public void startExcerpt(int capacity) {
+            Cycle write = chronicle.acquireWriteCycle();
+            if (write != cycle)
+                switchTo(chronicle.acquireCycle(write.cycle, true));
+            super.startExcerpt(capacity);
+        }
+
+        @Override
+        public long size() {
+            if (cycle.cycle == chronicle.lastCycle())
+                return RollingIndexedChronicle.index(cycle.cycle, super.size());
+            return chronicle.endIndex();
+        }
+
+        @Override
+        public Excerpt toStart() {
+            index(-1);
+            return this;
+        }
+
+        @Override
+        public Excerpt toEnd() {
+            int lastCycle = chronicle.findNewCycles();
+            if (moveToCycle(lastCycle))
+                super.toEnd();
+            return this;
+        }
+    }
+}
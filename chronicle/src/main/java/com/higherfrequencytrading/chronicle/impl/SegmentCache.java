@@ -0,0 +1,206 @@
+/*
+ * Copyright 2013 Peter Lawrey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.higherfrequencytrading.chronicle.impl;
+
+import com.higherfrequencytrading.chronicle.impl.IndexedChronicle.MappedSegment;
+
+import java.nio.MappedByteBuffer;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * The most recently used segments mapped from one file.  Lookups don't lock so readers in other threads can use it.
+ * When a segment is added to a full cache, the least recently used one is evicted.
+ * <p/>
+ * If unmapEvicted is true, segments are reference counted.  The cache holds one reference and each acquire() holds
+ * another until it is released, and a segment is unmapped as soon as it has been evicted and released by everyone.
+ *
+ * @author peter.lawrey
+ */
+final class SegmentCache {
+    private final boolean unmapEvicted;
+    // copy on write so other threads can read it without locking.
+    private volatile MappedSegment[] segments;
+    // evicted segments which are still acquired.
+    private final Map<MappedByteBuffer, MappedSegment> retired = new IdentityHashMap<MappedByteBuffer, MappedSegment>();
+    // only approximately ordered between threads, which is enough to pick a segment to evict.
+    private long clock = 0;
+
+    SegmentCache(int capacity, boolean unmapEvicted) {
+        this.unmapEvicted = unmapEvicted;
+        segments = new MappedSegment[capacity];
+    }
+
+    int capacity() {
+        return segments.length;
+    }
+
+    MappedByteBuffer get(int id) {
+        for (MappedSegment segment : segments) {
+            if (segment != null && segment.id == id) {
+                segment.lastUsed = ++clock;
+                return segment.buffer;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param id of the segment
+     * @return the buffer of the segment which must be released, or null if it is not in the cache.
+     */
+    MappedByteBuffer acquire(int id) {
+        for (MappedSegment segment : segments) {
+            if (segment != null && segment.id == id) {
+                segment.lastUsed = ++clock;
+                // it can't be acquired once the count has reached 0 as it is being unmapped.
+                int count;
+                while ((count = segment.refCount.get()) > 0)
+                    if (segment.refCount.compareAndSet(count, count + 1))
+                        return segment.buffer;
+                return null;
+            }
+        }
+        return null;
+    }
+
+    void release(MappedByteBuffer buffer) {
+        for (MappedSegment segment : segments) {
+            if (segment != null && segment.buffer == buffer) {
+                release(segment);
+                return;
+            }
+        }
+        MappedSegment segment;
+        synchronized (this) {
+            segment = retired.get(buffer);
+        }
+        if (segment != null)
+            release(segment);
+    }
+
+    private void release(MappedSegment segment) {
+        if (segment.refCount.decrementAndGet() == 0) {
+            synchronized (this) {
+                retired.remove(segment.buffer);
+            }
+            MappedBuffers.unmap(segment.buffer);
+        }
+    }
+
+    /**
+     * @param segment to add
+     * @return the segment evicted to make room or null if there was room.
+     */
+    MappedSegment add(MappedSegment segment) {
+        MappedSegment evicted;
+        synchronized (this) {
+            MappedSegment[] segments = this.segments.clone();
+            int lru = 0;
+            for (int i = 0; i < segments.length; i++) {
+                if (segments[i] == null) {
+                    lru = i;
+                    break;
+                }
+                if (segments[i].lastUsed < segments[lru].lastUsed)
+                    lru = i;
+            }
+            evicted = segments[lru];
+            // retire it before it disappears from segments so release() can always find it.
+            if (evicted != null && unmapEvicted)
+                retired.put(evicted.buffer, evicted);
+            segment.lastUsed = ++clock;
+            segments[lru] = segment;
+            this.segments = segments;
+        }
+        // drop the reference the cache held.
+        if (evicted != null && unmapEvicted)
+            release(evicted);
+        return evicted;
+    }
+
+    /**
+     * Drop a segment which is no longer needed.  If unmapEvicted is true, it is unmapped as an evicted one would be.
+     *
+     * @param id of the segment
+     */
+    void remove(int id) {
+        MappedSegment removed = null;
+        synchronized (this) {
+            MappedSegment[] segments = this.segments.clone();
+            for (int i = 0; i < segments.length; i++) {
+                if (segments[i] != null && segments[i].id == id) {
+                    removed = segments[i];
+                    if (unmapEvicted)
+                        retired.put(removed.buffer, removed);
+                    segments[i] = null;
+                    this.segments = segments;
+                    break;
+                }
+            }
+        }
+        if (removed != null && unmapEvicted)
+            release(removed);
+    }
+
+    /**
+     * Unmap every segment which is not acquired.
+     *
+     * @return the number of segments unmapped.
+     */
+    int trim() {
+        if (!unmapEvicted)
+            return 0;
+        MappedSegment[] trimmed;
+        synchronized (this) {
+            MappedSegment[] segments = this.segments.clone();
+            trimmed = new MappedSegment[segments.length];
+            for (int i = 0; i < segments.length; i++) {
+                if (segments[i] != null && segments[i].refCount.compareAndSet(1, 0)) {
+                    trimmed[i] = segments[i];
+                    segments[i] = null;
+                }
+            }
+            this.segments = segments;
+        }
+        int count = 0;
+        for (MappedSegment segment : trimmed) {
+            if (segment != null) {
+                MappedBuffers.unmap(segment.buffer);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the buffers of every segment removed, including those evicted but still acquired.
+     */
+    synchronized MappedByteBuffer[] clear() {
+        MappedSegment[] segments = this.segments;
+        this.segments = new MappedSegment[segments.length];
+        MappedByteBuffer[] buffers = new MappedByteBuffer[segments.length + retired.size()];
+        for (int i = 0; i < segments.length; i++)
+            if (segments[i] != null)
+                buffers[i] = segments[i].buffer;
+        int i = segments.length;
+        for (MappedByteBuffer buffer : retired.keySet())
+            buffers[i++] = buffer;
+        retired.clear();
+        return buffers;
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2013 Peter Lawrey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.higherfrequencytrading.chronicle.impl;
+
+import com.sun.jna.Library;
+import com.sun.jna.Native;
+
+import java.io.FileDescriptor;
+import java.lang.reflect.Field;
+import java.nio.channels.FileChannel;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Frees the disk space of part of a file without changing its size or the offsets of the data after it, by punching a
+ * hole with fallocate(2).  The hole reads as zeros.
+ * <p/>
+ * This needs Linux, a file system which supports it, e.g. ext4, xfs or tmpfs, and JNA, which is an optional dependency.
+ * Elsewhere punchHole() does nothing and returns false.
+ *
+ * @author peter.lawrey
+ */
+enum SparseFiles {
+    ;
+    private static final Logger logger = Logger.getLogger(SparseFiles.class.getName());
+    private static final int FALLOC_FL_KEEP_SIZE = 1;
+    private static final int FALLOC_FL_PUNCH_HOLE = 2;
+    private static final boolean SUPPORTED = System.getProperty("os.name").startsWith("Linux") && loadFallocate();
+
+    /**
+     * @return true if holes can be punched on this platform, it can still fail for a file system which doesn't support
+     *         it.
+     */
+    static boolean isSupported() {
+        return SUPPORTED;
+    }
+
+    /**
+     * Punch a hole in a file.  Only whole blocks inside the range are freed, partial blocks are zeroed.
+     *
+     * @param channel of the file
+     * @param offset  of the first byte
+     * @param length  of the hole in bytes
+     * @return true if the hole was punched.
+     */
+    static boolean punchHole(FileChannel channel, long offset, long length) {
+        if (length <= 0)
+            return true;
+        if (!SUPPORTED)
+            return false;
+        int fd = fd(channel);
+        if (fd < 0)
+            return false;
+        try {
+            return Fallocate.LIBC.fallocate64(fd, FALLOC_FL_KEEP_SIZE | FALLOC_FL_PUNCH_HOLE, offset, length) == 0;
+        } catch (UnsatisfiedLinkError e) {
+            logger.log(Level.FINE, "Unable to punch holes in files", e);
+            return false;
+        }
+    }
+
+    private static boolean loadFallocate() {
+        try {
+            return Fallocate.LIBC != null;
+        } catch (LinkageError e) {
+            // JNA is not on the class path.
+            logger.log(Level.FINE, "Unable to punch holes in files", e);
+            return false;
+        }
+    }
+
+    private static int fd(FileChannel channel) {
+        try {
+            Field fd = channel.getClass().getDeclaredField("fd");
+            fd.setAccessible(true);
+            Field fdId = FileDescriptor.class.getDeclaredField("fd");
+            fdId.setAccessible(true);
+            return fdId.getInt(fd.get(channel));
+        } catch (Exception e) {
+            logger.log(Level.FINE, "Unable to get the file descriptor of " + channel, e);
+            return -1;
+        }
+    }
+
+    // only loaded if JNA is available.
+    static final class Fallocate {
+        static final LibC LIBC = load();
+
+        interface LibC extends Library {
+            int fallocate64(int fd, int mode, long offset, long len);
+        }
+
+        private static LibC load() {
+            try {
+                return (LibC) Native.loadLibrary("c", LibC.class);
+            } catch (UnsatisfiedLinkError e) {
+                logger.log(Level.FINE, "Unable to load libc", e);
+                return null;
+            }
+        }
+    }
+}
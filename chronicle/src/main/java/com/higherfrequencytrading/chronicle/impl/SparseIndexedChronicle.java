@@ -0,0 +1,211 @@
+/*
+ * Copyright 2013 Peter Lawrey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.higherfrequencytrading.chronicle.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Chronicle with an index a little over a quarter of the size of IndexedChronicle's.
+ * <p/>
+ * The index is made of 64 byte blocks.  Each block holds the full position of one excerpt followed by the 2 byte
+ * lengths of the next 28 excerpts, so reading any entry touches a single cache line.
+ * <p/>
+ * A length which doesn't fit in 2 bytes is escaped and the full entry is kept in a basePath.overflow file at 8 bytes
+ * per index.  Only the pages of it written to use disk space.
+ *
+ * @author peter.lawrey
+ */
+public class SparseIndexedChronicle extends IndexedChronicle {
+    static final int ENTRIES_PER_BLOCK = 29;
+    static final int BLOCK_BITS = 6;
+    static final int ESCAPE = 0xFFFF;
+    private static final int OVERFLOW_BITS = 20;
+    private static final int OVERFLOW_MASK = (1 << OVERFLOW_BITS) - 1;
+
+    // set lazily, as the super constructor reads the index before any field initialisers run.
+    private FileChannel overflowChannel;
+    private volatile MappedByteBuffer[] overflowBuffers;
+
+    public SparseIndexedChronicle(String basePath) throws IOException {
+        super(basePath);
+    }
+
+    public SparseIndexedChronicle(String basePath, int dataBitSizeHint) throws IOException {
+        super(basePath, dataBitSizeHint);
+    }
+
+    public SparseIndexedChronicle(String basePath, int dataBitSizeHint, ByteOrder byteOrder) throws IOException {
+        super(basePath, dataBitSizeHint, byteOrder);
+    }
+
+    public SparseIndexedChronicle(String basePath, int dataBitSizeHint, ByteOrder byteOrder, boolean minimiseByteBuffers, boolean synchronousMode, boolean readOnly) throws IOException {
+        super(basePath, dataBitSizeHint, byteOrder, minimiseByteBuffers, synchronousMode, readOnly);
+    }
+
+    @Override
+    protected long indexOffset(long indexId) {
+        long block = indexId / ENTRIES_PER_BLOCK;
+        int entry = (int) (indexId - block * ENTRIES_PER_BLOCK);
+        // the first entry is a long, the rest are shorts after it.
+        return (block << BLOCK_BITS) + (entry == 0 ? 0 : 6 + entry * 2);
+    }
+
+    @Override
+    protected long indexEntries(long indexFileSize) {
+        return (indexFileSize >>> BLOCK_BITS) * ENTRIES_PER_BLOCK;
+    }
+
+    @Override
+    public void concurrentAppends(boolean concurrentAppends) {
+        if (concurrentAppends)
+            throw new IllegalStateException("Concurrent appends require an 8 byte index in the native byte order");
+    }
+
+    @Override
+    public long sizeInBytes() {
+        long size = super.sizeInBytes();
+        synchronized (this) {
+            try {
+                if (overflowChannel != null)
+                    size += overflowChannel.size();
+            } catch (IOException ignored) {
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Add the lengths back to the start of the block or the last escaped entry.  An entry is only written if every
+     * entry before it in the block is.
+     */
+    @Override
+    public long getIndexData(long indexId) {
+        long block = indexId / ENTRIES_PER_BLOCK;
+        int entry = (int) (indexId - block * ENTRIES_PER_BLOCK);
+        long blockOffset = block << BLOCK_BITS;
+        ByteBuffer indexBuffer = acquireIndexBuffer(blockOffset);
+        // read only and not written yet.
+        if (indexBuffer == null)
+            return 0;
+        int position = (int) (blockOffset & indexLowMask);
+        long lengths = 0;
+        for (int i = entry; i > 0; i--) {
+            int length = indexBuffer.getShort(position + 6 + i * 2) & 0xFFFF;
+            if (length == 0)
+                return 0;
+            if (length == ESCAPE)
+                return overflow(block * ENTRIES_PER_BLOCK + i) + lengths;
+            lengths += length;
+        }
+        return indexBuffer.getLong(position) + lengths;
+    }
+
+    @Override
+    public boolean uncommittedEntries() {
+        return false;
+    }
+
+    @Override
+    public void setIndexData(long indexId, long indexData) {
+        long block = indexId / ENTRIES_PER_BLOCK;
+        int entry = (int) (indexId - block * ENTRIES_PER_BLOCK);
+        long blockOffset = block << BLOCK_BITS;
+        ByteBuffer indexBuffer = acquireIndexBuffer(blockOffset);
+        int position = (int) (blockOffset & indexLowMask);
+        if (entry == 0) {
+            indexBuffer.putLong(position, indexData);
+            return;
+        }
+        long length = indexData == 0 ? 0 : indexData - getIndexData(indexId - 1);
+        if (indexData != 0 && (length <= 0 || length >= ESCAPE)) {
+            // write the full entry before the escape which points to it.
+            overflowBuffer(indexId << 3).putLong((int) ((indexId << 3) & OVERFLOW_MASK), indexData);
+            length = ESCAPE;
+        }
+        indexBuffer.putShort(position + 6 + entry * 2, (short) length);
+    }
+
+    private long overflow(long indexId) {
+        long offset = indexId << 3;
+        MappedByteBuffer buffer = overflowBuffer(offset);
+        return buffer == null ? 0 : buffer.getLong((int) (offset & OVERFLOW_MASK));
+    }
+
+    private MappedByteBuffer overflowBuffer(long offset) {
+        int id = (int) (offset >>> OVERFLOW_BITS);
+        MappedByteBuffer[] buffers = overflowBuffers;
+        if (buffers != null && id < buffers.length && buffers[id] != null)
+            return buffers[id];
+        return createOverflowBuffer(id);
+    }
+
+    private synchronized MappedByteBuffer createOverflowBuffer(int id) {
+        try {
+            // another thread might have mapped it already.
+            MappedByteBuffer[] buffers = overflowBuffers;
+            if (buffers == null)
+                buffers = new MappedByteBuffer[0];
+            if (id < buffers.length && buffers[id] != null)
+                return buffers[id];
+            long start = (long) id << OVERFLOW_BITS;
+            if (overflowChannel == null) {
+                File file = new File(basePath() + ".overflow");
+                // a read only mapping can't create the file, nothing has been escaped yet.
+                if (readOnly() && !file.exists())
+                    return null;
+                overflowChannel = new RandomAccessFile(file, readOnly() ? "r" : "rw").getChannel();
+            }
+            if (readOnly() && overflowChannel.size() < start + (1 << OVERFLOW_BITS))
+                return null;
+            MappedByteBuffer mbb = overflowChannel.map(readOnly() ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE, start, 1 << OVERFLOW_BITS);
+            mbb.order(byteOrder());
+            if (buffers.length <= id)
+                buffers = Arrays.copyOf(buffers, Math.max(id + 1, buffers.length * 2));
+            buffers[id] = mbb;
+            overflowBuffers = buffers;
+            return mbb;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        synchronized (this) {
+            MappedByteBuffer[] buffers = overflowBuffers;
+            if (buffers != null)
+                for (MappedByteBuffer buffer : buffers)
+                    if (buffer != null)
+                        MappedBuffers.unmap(buffer);
+            overflowBuffers = null;
+            if (overflowChannel != null)
+                try {
+                    overflowChannel.close();
+                } catch (IOException ignored) {
+                }
+            overflowChannel = null;
+        }
+    }
+}
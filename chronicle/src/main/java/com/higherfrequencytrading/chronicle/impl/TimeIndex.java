@@ -0,0 +1,195 @@
+/*
+ * Copyright 2013 Peter Lawrey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.higherfrequencytrading.chronicle.impl;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A secondary index of when excerpts were added, so a reader can find where to start from a time without scanning the
+ * Chronicle.  Each entry is a time in milliseconds and the number of excerpts added by then, in the native byte order.
+ * An entry is added every so many excerpts or milliseconds, whichever comes first.
+ * <p/>
+ * Unused entries are zero, so the entries written are found by a binary search.
+ *
+ * @author peter.lawrey
+ */
+final class TimeIndex {
+    static final int ENTRY_SIZE = 16;
+    private static final int CHUNK_BITS = 20;
+    private static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
+
+    private final FileChannel channel;
+    private final int everyExcerpts;
+    private final long everyMillis;
+    private final boolean readOnly;
+    private final List<MappedByteBuffer> chunks = new ArrayList<MappedByteBuffer>();
+    private long entries;
+    // read without the lock, so most excerpts added don't need it.
+    private volatile long lastSize = 0;
+    private volatile long lastTime = 0;
+
+    TimeIndex(String path, int everyExcerpts, long everyMillis, boolean readOnly) throws IOException {
+        this.everyExcerpts = everyExcerpts;
+        this.everyMillis = everyMillis;
+        this.readOnly = readOnly;
+        channel = new RandomAccessFile(path, readOnly ? "r" : "rw").getChannel();
+        entries = written();
+        if (entries > 0) {
+            lastTime = time(entries - 1);
+            lastSize = size(entries - 1);
+        }
+    }
+
+    /**
+     * Called after excerpts have been added.
+     *
+     * @param size       the number of excerpts added
+     * @param timeMillis now
+     */
+    void excerptsAdded(long size, long timeMillis) {
+        if (isDue(size, timeMillis))
+            addEntry(size, timeMillis);
+    }
+
+    private boolean isDue(long size, long timeMillis) {
+        long lastSize = this.lastSize;
+        return size > lastSize && (size - lastSize >= everyExcerpts || timeMillis - lastTime >= everyMillis);
+    }
+
+    private synchronized void addEntry(long size, long timeMillis) {
+        // another appender might have added it.
+        if (!isDue(size, timeMillis))
+            return;
+        // the times must not go backwards for the binary search.
+        if (timeMillis < lastTime)
+            timeMillis = lastTime;
+        int offset = offset(entries);
+        MappedByteBuffer chunk = chunk(entries);
+        chunk.putLong(offset + 8, size);
+        // the time is written last as a non-zero time marks the entry as written.
+        chunk.putLong(offset, timeMillis);
+        entries++;
+        lastSize = size;
+        lastTime = timeMillis;
+    }
+
+    /**
+     * @param timeMillis to search for.
+     * @return the index of the first excerpt which might have been added at or after this time.
+     */
+    synchronized long firstIndexFor(long timeMillis) {
+        // find the last entry before the time, entries written by another process are included.
+        long lo = -1, hi = entryCapacity();
+        while (hi - lo > 1) {
+            long mid = (lo + hi) >>> 1;
+            long time = time(mid);
+            if (time != 0 && time < timeMillis)
+                lo = mid;
+            else
+                hi = mid;
+        }
+        return lo < 0 ? 0 : size(lo);
+    }
+
+    /**
+     * Remove the entries for excerpts which have been truncated.
+     *
+     * @param size the number of excerpts kept.
+     */
+    synchronized void truncate(long size) {
+        // clear from the end so the entries left are always written.
+        while (entries > 0 && size(entries - 1) > size) {
+            entries--;
+            chunk(entries).putLong(offset(entries), 0L);
+        }
+        lastSize = entries > 0 ? size(entries - 1) : 0;
+        lastTime = entries > 0 ? time(entries - 1) : 0;
+    }
+
+    synchronized void clear() {
+        for (long i = 0; i < entries; i++)
+            chunk(i).putLong(offset(i), 0L);
+        entries = lastSize = lastTime = 0;
+    }
+
+    synchronized void close() {
+        for (MappedByteBuffer chunk : chunks)
+            if (chunk != null)
+                MappedBuffers.unmap(chunk);
+        chunks.clear();
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private long written() {
+        long lo = -1, hi = entryCapacity();
+        while (hi - lo > 1) {
+            long mid = (lo + hi) >>> 1;
+            if (time(mid) == 0)
+                hi = mid;
+            else
+                lo = mid;
+        }
+        return lo + 1;
+    }
+
+    private long entryCapacity() {
+        try {
+            return channel.size() / ENTRY_SIZE;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private long time(long entry) {
+        return chunk(entry).getLong(offset(entry));
+    }
+
+    private long size(long entry) {
+        return chunk(entry).getLong(offset(entry) + 8);
+    }
+
+    private static int offset(long entry) {
+        return (int) (entry * ENTRY_SIZE & CHUNK_MASK);
+    }
+
+    private MappedByteBuffer chunk(long entry) {
+        int chunkId = (int) (entry * ENTRY_SIZE >> CHUNK_BITS);
+        while (chunks.size() <= chunkId)
+            chunks.add(null);
+        MappedByteBuffer chunk = chunks.get(chunkId);
+        if (chunk == null) {
+            try {
+                chunk = channel.map(readOnly ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE,
+                        (long) chunkId << CHUNK_BITS, 1 << CHUNK_BITS);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            chunk.order(ByteOrder.nativeOrder());
+            chunks.set(chunkId, chunk);
+        }
+        return chunk;
+    }
+}
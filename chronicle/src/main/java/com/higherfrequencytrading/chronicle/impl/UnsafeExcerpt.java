@@ -34,11 +34,9 @@ public class UnsafeExcerpt extends AbstractExcerpt {
         this.index = index;
         this.startPosition = startPosition;
 
-        buffer = chronicle.acquireDataBuffer(startPosition);
-
-        long address = ((DirectBuffer) buffer).address();
-        start = position = address + chronicle.positionInBuffer(startPosition);
-        limit = address + chronicle.positionInBuffer(endPosition - 1) + 1;
+        int positionInBuffer = acquireBuffer(startPosition, endPosition);
+        start = position = ((DirectBuffer) buffer).address() + positionInBuffer;
+        limit = start + endPosition - startPosition;
 
         assert limit > start && position < limit && endPosition > startPosition;
     }
@@ -20,6 +20,8 @@ import com.higherfrequencytrading.chronicle.ByteStringAppender;
 import com.higherfrequencytrading.chronicle.Chronicle;
 import com.higherfrequencytrading.chronicle.Excerpt;
 import com.higherfrequencytrading.chronicle.StopCharTester;
+import com.higherfrequencytrading.chronicle.TimeExtractor;
+import com.higherfrequencytrading.chronicle.WaitStrategy;
 import com.higherfrequencytrading.chronicle.math.MutableDecimal;
 
 import java.io.InputStream;
@@ -29,17 +31,32 @@ import java.nio.ByteOrder;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author peter.lawrey
  */
 public class WrappedExcerpt implements Excerpt {
-    private final Excerpt excerpt;
+    private Excerpt excerpt;
 
     public WrappedExcerpt(Excerpt excerpt) {
         this.excerpt = excerpt;
     }
 
+    /**
+     * @return the Excerpt all calls are delegated to.
+     */
+    protected Excerpt wrappedExcerpt() {
+        return excerpt;
+    }
+
+    /**
+     * @param excerpt to delegate all calls to from now on.
+     */
+    protected void wrappedExcerpt(Excerpt excerpt) {
+        this.excerpt = excerpt;
+    }
+
     public Chronicle chronicle() {
         return excerpt.chronicle();
     }
@@ -53,14 +70,42 @@ public class WrappedExcerpt implements Excerpt {
         return excerpt.nextIndex();
     }
 
+    public boolean nextIndex(WaitStrategy waitStrategy, long timeout, TimeUnit unit) {
+        return AbstractExcerpt.nextIndex(this, waitStrategy, unit.toNanos(timeout));
+    }
+
     public boolean index(long index) throws IndexOutOfBoundsException {
         return excerpt.index(index);
     }
 
+    public boolean seekToTime(long timeMillis) {
+        return excerpt.seekToTime(timeMillis);
+    }
+
+    public boolean seekToTime(long timeMillis, TimeExtractor extractor) {
+        return excerpt.seekToTime(timeMillis, extractor);
+    }
+
+    public void readAhead(int bytes) {
+        excerpt.readAhead(bytes);
+    }
+
     public void startExcerpt(int capacity) {
         excerpt.startExcerpt(capacity);
     }
 
+    public void ensureCapacity(int capacity) {
+        excerpt.ensureCapacity(capacity);
+    }
+
+    public void startBatch() {
+        excerpt.startBatch();
+    }
+
+    public void finishBatch() {
+        excerpt.finishBatch();
+    }
+
     public void finish() {
         excerpt.finish();
     }
@@ -185,7 +185,7 @@ public class InProcessChronicleSink implements Chronicle {
             }
 
 //            System.out.println("size=" + size + "  rb " + readBuffer);
-            if (size > 128 << 20 || size < 0)
+            if (size < 0)
                 throw new StreamCorruptedException("size was " + size);
 
             excerpt.startExcerpt((int) size);
@@ -19,11 +19,17 @@ package com.higherfrequencytrading.chronicle.tcp;
 import com.higherfrequencytrading.chronicle.Chronicle;
 import com.higherfrequencytrading.chronicle.EnumeratedMarshaller;
 import com.higherfrequencytrading.chronicle.Excerpt;
+import com.higherfrequencytrading.chronicle.WaitStrategy;
+import com.higherfrequencytrading.chronicle.impl.AbstractExcerpt;
+import com.higherfrequencytrading.chronicle.impl.ChecksumVerification;
+import com.higherfrequencytrading.chronicle.impl.DirectChronicle;
+import com.higherfrequencytrading.chronicle.impl.IndexedChronicle;
 import com.higherfrequencytrading.chronicle.impl.WrappedExcerpt;
 import com.higherfrequencytrading.chronicle.tools.IOTools;
 
 import java.io.EOFException;
 import java.io.IOException;
+import java.io.StreamCorruptedException;
 import java.net.InetSocketAddress;
 import java.net.SocketException;
 import java.nio.ByteBuffer;
@@ -32,6 +38,7 @@ import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -57,6 +64,7 @@ public class InProcessChronicleSource implements Chronicle {
 
     private volatile boolean closed = false;
     private Boolean tcpNoDelay;
+    private WaitStrategy waitStrategy = null;
 
     public InProcessChronicleSource(Chronicle chronicle, int port) throws IOException {
         this.chronicle = chronicle;
@@ -82,6 +90,19 @@ public class InProcessChronicleSource implements Chronicle {
         return tcpNoDelay;
     }
 
+    /**
+     * @param waitStrategy how session handlers wait for new excerpts.  null, the default, waits to be woken by an
+     *                     excerpt finished in this process, which misses excerpts written by other processes until
+     *                     the next heartbeat.
+     */
+    public void setWaitStrategy(WaitStrategy waitStrategy) {
+        this.waitStrategy = waitStrategy;
+    }
+
+    public WaitStrategy getWaitStrategy() {
+        return waitStrategy;
+    }
+
     private class Acceptor implements Runnable {
         @Override
         public void run() {
@@ -100,9 +121,12 @@ public class InProcessChronicleSource implements Chronicle {
 
     class Handler implements Runnable {
         private final SocketChannel socket;
+        private final boolean verifyChecksums;
 
         public Handler(SocketChannel socket) throws SocketException {
             this.socket = socket;
+            verifyChecksums = chronicle instanceof DirectChronicle
+                    && ((DirectChronicle) chronicle).checksumVerification() == ChecksumVerification.REPLICATION;
             socket.socket().setSendBufferSize(256 * 1024);
             Boolean tcpNoDelay = getTcpNoDelay();
             if (tcpNoDelay != null)
@@ -117,10 +141,25 @@ public class InProcessChronicleSource implements Chronicle {
                 ByteBuffer bb = TcpUtil.createBuffer(1, chronicle); // minimum size
                 long sendInSync = 0;
                 boolean first = true;
+                WaitStrategy waitStrategy = InProcessChronicleSource.this.waitStrategy;
+                if (waitStrategy == null)
+                    waitStrategy = notifierWait;
+                long firstIndex = chronicle instanceof IndexedChronicle ? ((IndexedChronicle) chronicle).firstIndex() : 0;
+                if (index < firstIndex)
+                    throw new StreamCorruptedException("Asked for index " + index + " but the first index is " + firstIndex);
+                // the sink can ask for an excerpt which hasn't been written yet.
+                for (int idle = 0; !excerpt.index(index); ) {
+                    if (closed)
+                        return;
+                    waitStrategy.idle(idle);
+                    if (idle < Integer.MAX_VALUE)
+                        idle++;
+                }
+                boolean positioned = true;
                 OUTER:
                 while (!closed) {
-                    while (!excerpt.index(index)) {
-//                        System.out.println("Waiting for " + index);
+                    while (!positioned && !excerpt.nextIndex()) {
+//                        System.out.println("Waiting for " + (index + 1));
                         long now = System.currentTimeMillis();
                         if (sendInSync <= now && !first) {
                             bb.clear();
@@ -129,10 +168,14 @@ public class InProcessChronicleSource implements Chronicle {
                             IOTools.writeAll(socket, bb);
                             sendInSync = now + HEARTBEAT_INTERVAL_MS;
                         }
-                        pause();
+                        if (excerpt.nextIndex(waitStrategy, HEARTBEAT_INTERVAL_MS / 2, TimeUnit.MILLISECONDS))
+                            break;
                         if (closed) break OUTER;
                     }
+                    positioned = false;
+                    index = excerpt.index();
 //                    System.out.println("Writing " + index);
+                    verify(excerpt, index);
                     final int size = excerpt.capacity();
                     int remaining;
 
@@ -161,9 +204,13 @@ public class InProcessChronicleSource implements Chronicle {
                         bb.limit(remaining);
                         excerpt.read(bb);
                         int count = 1;
-                        while (excerpt.index(index + 1) && count++ < MAX_MESSAGE) {
-                            if (excerpt.remaining() + 4 >= bb.capacity() - bb.position())
+                        while (count++ < MAX_MESSAGE && excerpt.nextIndex()) {
+                            if (excerpt.remaining() + 4 >= bb.capacity() - bb.position()) {
+                                // send it next time.
+                                excerpt.index(index);
                                 break;
+                            }
+                            verify(excerpt, excerpt.index());
                             // if there is free space, copy another one.
                             int size2 = excerpt.capacity();
 //                            System.out.println("W+ "+size);
@@ -171,7 +218,7 @@ public class InProcessChronicleSource implements Chronicle {
                             bb.putInt(size2);
                             excerpt.read(bb);
 
-                            index++;
+                            index = excerpt.index();
                         }
 
                         bb.flip();
@@ -179,7 +226,6 @@ public class InProcessChronicleSource implements Chronicle {
                         IOTools.writeAll(socket, bb);
                     }
                     if (bb.remaining() > 0) throw new EOFException("Failed to send index=" + index);
-                    index++;
                     sendInSync = 0;
 //                    if (index % 20000 == 0)
 //                        System.out.println(System.currentTimeMillis() + ": wrote " + index);
@@ -197,6 +243,11 @@ public class InProcessChronicleSource implements Chronicle {
             }
         }
 
+        private void verify(Excerpt excerpt, long index) throws StreamCorruptedException {
+            if (verifyChecksums && excerpt instanceof AbstractExcerpt && !((AbstractExcerpt) excerpt).verifyChecksum())
+                throw new StreamCorruptedException("Checksum failed for index=" + index);
+        }
+
         private long readIndex(SocketChannel socket) throws IOException {
             ByteBuffer bb = ByteBuffer.allocate(8);
             IOTools.readFullyOrEOF(socket, bb);
@@ -207,6 +258,14 @@ public class InProcessChronicleSource implements Chronicle {
 
     private final Object notifier = new Object();
 
+    // waits to be woken by an excerpt finished in this process, or the heartbeat.
+    private final WaitStrategy notifierWait = new WaitStrategy() {
+        @Override
+        public void idle(int count) {
+            pause();
+        }
+    };
+
     protected void pause() {
         try {
             synchronized (notifier) {
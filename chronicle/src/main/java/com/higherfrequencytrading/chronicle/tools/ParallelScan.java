@@ -0,0 +1,143 @@
+/*
+ * Copyright 2013 Peter Lawrey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.higherfrequencytrading.chronicle.tools;
+
+import com.higherfrequencytrading.chronicle.Chronicle;
+import com.higherfrequencytrading.chronicle.Excerpt;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Scan a range of excerpts with several threads.  As Excerpt.index(long) is random access, the range is split into
+ * partitions which are each scanned by one task with its own Excerpt, and the results of the partitions are combined in
+ * index order.
+ * <p/>
+ * This needs a Chronicle whose indexes are consecutive, such as an IndexedChronicle.
+ *
+ * @author peter.lawrey
+ */
+public enum ParallelScan {
+    ;
+
+    /**
+     * How to reduce the excerpts of a scan to a result.  The methods are called by several threads at once, each with
+     * the result of its own partition.
+     *
+     * @param <R> the type of the result.
+     */
+    public interface ExcerptReducer<R> {
+        /**
+         * @return the result of a partition before any excerpts.
+         */
+        R initial();
+
+        /**
+         * @param result  of the partition so far.
+         * @param excerpt the next excerpt in the partition.
+         * @return the result including this excerpt, which can be the result passed if it is mutable.
+         */
+        R accumulate(R result, Excerpt excerpt);
+
+        /**
+         * @param earlier the result of the earlier excerpts.
+         * @param later   the result of the excerpts after them.
+         * @return the result of both.
+         */
+        R combine(R earlier, R later);
+    }
+
+    /**
+     * Scan every excerpt, with four partitions per processor.
+     *
+     * @param chronicle to scan
+     * @param executor  to run the partitions
+     * @param reducer   to produce the result
+     * @return the result of every excerpt.
+     * @throws InterruptedException if interrupted while waiting for the partitions.
+     */
+    public static <R> R scan(Chronicle chronicle, ExecutorService executor, ExcerptReducer<R> reducer) throws InterruptedException {
+        return scan(chronicle, 0, chronicle.size(), Runtime.getRuntime().availableProcessors() * 4, executor, reducer);
+    }
+
+    /**
+     * Scan the excerpts from index fromIndex to toIndex.  Excerpts which haven't been finished yet are skipped.
+     *
+     * @param chronicle  to scan
+     * @param fromIndex  the first excerpt
+     * @param toIndex    the last excerpt (exclusive)
+     * @param partitions the number of tasks to split the range into.
+     * @param executor   to run the partitions
+     * @param reducer    to produce the result
+     * @return the result of the excerpts in the range.
+     * @throws InterruptedException if interrupted while waiting for the partitions.
+     */
+    public static <R> R scan(final Chronicle chronicle, long fromIndex, long toIndex, int partitions,
+                             ExecutorService executor, final ExcerptReducer<R> reducer) throws InterruptedException {
+        if (fromIndex < 0 || toIndex < fromIndex)
+            throw new IllegalArgumentException("Invalid range " + fromIndex + " to " + toIndex);
+        long length = toIndex - fromIndex;
+        partitions = (int) Math.max(1, Math.min(partitions, length));
+        List<Future<R>> futures = new ArrayList<Future<R>>(partitions);
+        try {
+            for (int i = 0; i < partitions; i++) {
+                final long from = fromIndex + length * i / partitions;
+                final long to = fromIndex + length * (i + 1) / partitions;
+                futures.add(executor.submit(new Callable<R>() {
+                    @Override
+                    public R call() {
+                        return scanPartition(chronicle, from, to, reducer);
+                    }
+                }));
+            }
+            R result = null;
+            for (int i = 0; i < futures.size(); i++) {
+                R r = futures.get(i).get();
+                result = i == 0 ? r : reducer.combine(result, r);
+            }
+            return result;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new IllegalStateException(cause);
+        } finally {
+            // stop the rest on failure.
+            for (Future<R> future : futures)
+                future.cancel(true);
+        }
+    }
+
+    static <R> R scanPartition(Chronicle chronicle, long fromIndex, long toIndex, ExcerptReducer<R> reducer) {
+        // created in the thread which uses it.
+        Excerpt excerpt = chronicle.createExcerpt();
+        R result = reducer.initial();
+        for (long i = fromIndex; i < toIndex; i++) {
+            if (!excerpt.index(i))
+                continue;
+            result = reducer.accumulate(result, excerpt);
+            excerpt.finish();
+        }
+        return result;
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2013 Peter Lawrey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.higherfrequencytrading.chronicle;
+
+import com.higherfrequencytrading.chronicle.impl.IndexedChronicle;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static junit.framework.Assert.*;
+
+/**
+ * @author peter.lawrey
+ */
+public class WaitStrategiesTest {
+    static final String TMP = System.getProperty("java.io.tmpdir");
+
+    @Test
+    public void testTailing() throws IOException, InterruptedException {
+        WaitStrategy[] strategies = {WaitStrategies.BUSY_SPIN, WaitStrategies.SPIN_YIELD, WaitStrategies.SPIN_PARK,
+                WaitStrategies.spinThenPark(10, 10, 100 * 1000)};
+        for (WaitStrategy strategy : strategies) {
+            String basePath = TMP + File.separator + "deleteme.wait";
+            deleteOnExit(basePath);
+            IndexedChronicle writer = new IndexedChronicle(basePath, 12);
+            writer.clear();
+            // a separate Chronicle for the same files, as another process would have.
+            final IndexedChronicle reader = new IndexedChronicle(basePath, 12);
+            final WaitStrategy waitStrategy = strategy;
+            final AtomicLong last = new AtomicLong();
+            Thread t = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Excerpt excerpt = reader.createExcerpt();
+                    for (int i = 1; i <= 100; i++) {
+                        if (!excerpt.nextIndex(waitStrategy, 5, TimeUnit.SECONDS))
+                            break;
+                        long n = excerpt.readLong();
+                        excerpt.finish();
+                        if (n != i)
+                            break;
+                        last.set(n);
+                    }
+                }
+            });
+            t.start();
+
+            Excerpt excerpt = writer.createExcerpt();
+            for (int i = 1; i <= 100; i++) {
+                excerpt.startExcerpt(8);
+                excerpt.writeLong(i);
+                excerpt.finish();
+                if (i % 10 == 0)
+                    Thread.sleep(2);
+            }
+            t.join(10000);
+            assertEquals(strategy.toString(), 100, last.get());
+
+            // times out when nothing more is written.
+            Excerpt tailer = reader.createExcerpt();
+            tailer.index(99);
+            long start = System.nanoTime();
+            assertFalse(tailer.nextIndex(waitStrategy, 20, TimeUnit.MILLISECONDS));
+            assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(20));
+            reader.close();
+            writer.close();
+        }
+    }
+
+    @Test
+    public void testFutexWakeup() throws IOException, InterruptedException {
+        String basePath = TMP + File.separator + "deleteme.futex";
+        deleteOnExit(basePath);
+        IndexedChronicle writer = new IndexedChronicle(basePath, 12);
+        writer.clear();
+        writer.wakeReaders(true);
+        final IndexedChronicle reader = new IndexedChronicle(basePath, 12);
+        // waits far longer than the test takes unless it is woken.
+        final WaitStrategy waitStrategy = reader.futexWaitStrategy(10, TimeUnit.SECONDS.toNanos(20), WaitStrategies.SPIN_PARK);
+        final AtomicLong last = new AtomicLong();
+        Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Excerpt excerpt = reader.createExcerpt();
+                for (int i = 1; i <= 20; i++) {
+                    if (!excerpt.nextIndex(waitStrategy, 30, TimeUnit.SECONDS))
+                        break;
+                    long n = excerpt.readLong();
+                    excerpt.finish();
+                    if (n != i)
+                        break;
+                    last.set(n);
+                }
+            }
+        });
+        t.start();
+
+        long start = System.nanoTime();
+        Excerpt excerpt = writer.createExcerpt();
+        for (int i = 1; i <= 20; i++) {
+            // long enough for the reader to be waiting.
+            Thread.sleep(10);
+            excerpt.startExcerpt(8);
+            excerpt.writeLong(i);
+            excerpt.finish();
+        }
+        t.join(10000);
+        assertEquals(20, last.get());
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10));
+        reader.close();
+        writer.close();
+    }
+
+    private static void deleteOnExit(String basePath) {
+        new File(basePath + ".data").deleteOnExit();
+        new File(basePath + ".index").deleteOnExit();
+        new File(basePath + ".notify").deleteOnExit();
+    }
+}
@@ -43,8 +43,10 @@ public class ByteBufferExcerptTest {
         expect(mbb.get(0)).andReturn((byte) -128);
         expect(dc.acquireDataBuffer(0)).andReturn(mbb);
         expect(dc.positionInBuffer(0)).andReturn(0);
-        expect(dc.positionInBuffer(7)).andReturn(0);
+        expect(dc.positionInBuffer(7)).andReturn(7);
+        expect(dc.checksums()).andReturn(false);
         expect(dc.multiThreaded()).andReturn(true);
+        dc.releaseDataBuffer(mbb);
         replay(dc);
         replay(mbb);
         ByteBufferExcerpt aei = new ByteBufferExcerpt(dc);
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2013 Peter Lawrey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.higherfrequencytrading.chronicle.impl;
+
+import com.higherfrequencytrading.chronicle.Excerpt;
+import com.higherfrequencytrading.chronicle.tools.ChronicleTools;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+
+import static junit.framework.Assert.*;
+
+/**
+ * @author peter.lawrey
+ */
+public class ChronicleCopierTest {
+    static final String TMP = System.getProperty("java.io.tmpdir");
+
+    private static IndexedChronicle create(String name, int dataBitSize) throws IOException {
+        String basePath = TMP + File.separator + name;
+        ChronicleTools.deleteOnExit(basePath);
+        return new IndexedChronicle(basePath, dataBitSize);
+    }
+
+    // excerpts of different lengths so some are padded to the next data segment.
+    private static void append(IndexedChronicle chronicle, int from, int to) {
+        Excerpt excerpt = chronicle.createExcerpt();
+        for (int i = from; i < to; i++) {
+            excerpt.startExcerpt(8 + (i % 50) * 8);
+            excerpt.writeLong(i);
+            for (int j = 0; j < i % 50; j++)
+                excerpt.writeLong(j);
+            excerpt.finish();
+        }
+    }
+
+    private static void check(IndexedChronicle chronicle, long index, long value) {
+        Excerpt excerpt = chronicle.createExcerpt();
+        assertTrue(excerpt.index(index));
+        assertEquals(value, excerpt.readLong());
+        // excerpts before a padded one include the padding.
+        assertTrue(excerpt.capacity() >= 8 + (value % 50) * 8);
+        for (int j = 0; j < value % 50; j++)
+            assertEquals(j, excerpt.readLong());
+        excerpt.finish();
+    }
+
+    @Test
+    public void testBulkCopy() throws IOException {
+        IndexedChronicle from = create("copy-from", 12);
+        append(from, 1, 10001);
+        IndexedChronicle to = create("copy-to", 12);
+        // start at a different position to the source.
+        append(to, 1, 4);
+
+        assertEquals(5000, ChronicleCopier.copy(from, 1000, 6000, to));
+        assertEquals(5003, to.size());
+        for (int i = 0; i < 5000; i++)
+            check(to, i + 3, i + 1001);
+        // only the excerpts added so far.
+        assertEquals(1000, ChronicleCopier.copy(from, 9000, 20000, to));
+        check(to, 6002, 10000);
+        assertFalse(to.createExcerpt().index(6003));
+
+        // and can be appended to.
+        append(to, 10001, 10002);
+        check(to, 6003, 10001);
+
+        // to an empty chronicle from the middle of a data segment.
+        IndexedChronicle empty = create("copy-to-empty", 12);
+        assertEquals(100, ChronicleCopier.copy(from, 2001, 2101, empty));
+        empty.close();
+        // and the copy can be opened read only.
+        IndexedChronicle readOnly = new IndexedChronicle(TMP + File.separator + "copy-to-empty", 12,
+                ByteOrder.nativeOrder(), false, false, true);
+        assertEquals(100, readOnly.size());
+        Excerpt excerpt = readOnly.createExcerpt().toStart();
+        for (int i = 0; i < 100; i++) {
+            assertTrue(excerpt.nextIndex());
+            assertEquals(i + 2002, excerpt.readLong());
+            excerpt.finish();
+        }
+        assertFalse(excerpt.nextIndex());
+        readOnly.close();
+
+        // a target which aligns its excerpts copies each one.
+        IndexedChronicle aligned = create("copy-to-aligned", 12);
+        aligned.excerptAlignment(64);
+        assertEquals(100, ChronicleCopier.copy(from, 2001, 2101, aligned));
+        for (int i = 0; i < 100; i++) {
+            assertEquals(0, aligned.getIndexData(i) % 64);
+            check(aligned, i, i + 2002);
+        }
+        from.close();
+        to.close();
+        aligned.close();
+    }
+
+    @Test
+    public void testFilteredCopy() throws IOException {
+        IndexedChronicle from = create("copy-filter-from", 12);
+        append(from, 1, 1001);
+        // a different segment size copies each excerpt.
+        IndexedChronicle to = create("copy-filter-to", 14);
+        assertEquals(1000, ChronicleCopier.copy(from, 0, from.size(), to));
+        for (int i = 0; i < 1000; i++)
+            check(to, i, i + 1);
+
+        IndexedChronicle even = create("copy-filter-even", 12);
+        long copied = ChronicleCopier.copy(from, 0, from.size(), even, new ChronicleCopier.ExcerptFilter() {
+            @Override
+            public boolean accept(Excerpt excerpt) {
+                return excerpt.readLong() % 2 == 0;
+            }
+        });
+        assertEquals(500, copied);
+        for (int i = 0; i < 500; i++)
+            check(even, i, i * 2 + 2);
+        from.close();
+        to.close();
+        even.close();
+    }
+}
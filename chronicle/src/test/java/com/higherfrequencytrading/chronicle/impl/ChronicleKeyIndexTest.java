@@ -0,0 +1,145 @@
+/*
+ * Copyright 2013 Peter Lawrey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.higherfrequencytrading.chronicle.impl;
+
+import com.higherfrequencytrading.chronicle.Excerpt;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static junit.framework.Assert.assertEquals;
+
+/**
+ * @author peter.lawrey
+ */
+public class ChronicleKeyIndexTest {
+    static final String TMP = System.getProperty("java.io.tmpdir");
+
+    static final ChronicleKeyIndex.KeyExtractor SYMBOL = new ChronicleKeyIndex.TextKeyExtractor() {
+        @Override
+        public CharSequence textKey(Excerpt excerpt) {
+            return excerpt.readUTF();
+        }
+    };
+
+    @Test
+    public void testLatest() throws IOException {
+        String basePath = TMP + File.separator + "key-index";
+        deleteOnExit(basePath);
+        new File(basePath + ".keys").delete();
+        IndexedChronicle chronicle = new IndexedChronicle(basePath);
+        chronicle.clear();
+        Excerpt excerpt = chronicle.createExcerpt();
+        ChronicleKeyIndex keyIndex = new ChronicleKeyIndex(chronicle, basePath, SYMBOL);
+
+        // enough keys to resize the table a few times.
+        int keys = 5000;
+        for (int i = 0; i < 3 * keys; i++) {
+            excerpt.startExcerpt(32);
+            excerpt.writeUTF("S" + i % keys);
+            excerpt.writeInt(i);
+            excerpt.finish();
+            if (i == keys)
+                keyIndex.update();
+        }
+        assertEquals(2 * keys, keyIndex.latest("S0"));
+        assertEquals(3 * keys - 1, keyIndex.latest("S" + (keys - 1)));
+        assertEquals(ChronicleKeyIndex.NOT_FOUND, keyIndex.latest("none"));
+        assertEquals(keys, keyIndex.keys());
+        assertEquals(3 * keys, keyIndex.indexed());
+        keyIndex.close();
+
+        // the space of the first table has been freed.
+        if (SparseFiles.isSupported()) {
+            RandomAccessFile raf = new RandomAccessFile(basePath + ".keys", "r");
+            raf.seek(64);
+            for (int i = 0; i < 1024; i++)
+                assertEquals(0, raf.readLong());
+            raf.close();
+        }
+
+        // reopen and carry on from where it was.
+        keyIndex = new ChronicleKeyIndex(chronicle, basePath, SYMBOL);
+        assertEquals(3 * keys, keyIndex.indexed());
+        excerpt.startExcerpt(32);
+        excerpt.writeUTF("S7");
+        excerpt.writeInt(-1);
+        excerpt.finish();
+        long index = keyIndex.latest("S7");
+        assertEquals(3 * keys, index);
+        for (int i = 1; i < keys; i += 97)
+            assertEquals(2 * keys + i, keyIndex.latest("S" + i));
+        assertEquals(keys, keyIndex.keys());
+
+        Excerpt reader = chronicle.createExcerpt();
+        reader.index(index);
+        assertEquals("S7", reader.readUTF());
+        assertEquals(-1, reader.readInt());
+        reader.finish();
+
+        keyIndex.close();
+        chronicle.close();
+    }
+
+    @Test
+    public void testHashCollisions() throws IOException {
+        String basePath = TMP + File.separator + "key-index-collisions";
+        deleteOnExit(basePath);
+        new File(basePath + ".keys").delete();
+        IndexedChronicle chronicle = new IndexedChronicle(basePath, 12);
+        chronicle.clear();
+        Excerpt excerpt = chronicle.createExcerpt();
+        // only four different hashes, so most keys share a hash with others.
+        ChronicleKeyIndex keyIndex = new ChronicleKeyIndex(chronicle, basePath, new ChronicleKeyIndex.TextKeyExtractor() {
+            @Override
+            public CharSequence textKey(Excerpt excerpt) {
+                return excerpt.readUTF();
+            }
+
+            @Override
+            public long hash(CharSequence key) {
+                return ChronicleKeyIndex.hashOf(key) & 3;
+            }
+        });
+        // enough keys for the table to be resized.
+        int keys = 600;
+        for (int i = 0; i < 3 * keys + 5; i++) {
+            excerpt.startExcerpt(16);
+            excerpt.writeUTF("K" + i * 7 % keys);
+            excerpt.finish();
+        }
+        for (int k = 0; k < keys; k++) {
+            long expected = -1;
+            for (int i = 0; i < 3 * keys + 5; i++)
+                if (i * 7 % keys == k)
+                    expected = i;
+            assertEquals(expected, keyIndex.latest("K" + k));
+        }
+        assertEquals(ChronicleKeyIndex.NOT_FOUND, keyIndex.latest("none"));
+        assertEquals(keys, keyIndex.keys());
+        keyIndex.close();
+        chronicle.close();
+    }
+
+    private static void deleteOnExit(String basePath) {
+        new File(basePath + ".data").deleteOnExit();
+        new File(basePath + ".index").deleteOnExit();
+        new File(basePath + ".keys").deleteOnExit();
+    }
+}
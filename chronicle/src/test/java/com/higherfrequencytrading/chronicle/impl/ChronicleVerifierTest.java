@@ -0,0 +1,138 @@
+/*
+ * Copyright 2013 Peter Lawrey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.higherfrequencytrading.chronicle.impl;
+
+import com.higherfrequencytrading.chronicle.Excerpt;
+import com.higherfrequencytrading.chronicle.tools.ChronicleTools;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static junit.framework.Assert.*;
+
+/**
+ * @author peter.lawrey
+ */
+public class ChronicleVerifierTest {
+    static final String TMP = System.getProperty("java.io.tmpdir");
+
+    private static void append(Excerpt excerpt, int from, int to) {
+        for (int i = from; i < to; i++) {
+            excerpt.startExcerpt(16);
+            excerpt.writeLong(i);
+            excerpt.writeLong(i);
+            excerpt.finish();
+        }
+    }
+
+    @Test
+    public void testVerifyAndTruncate() throws IOException, InterruptedException {
+        String basePath = TMP + File.separator + "verify";
+        ChronicleTools.deleteOnExit(basePath);
+        new File(basePath + ".time").deleteOnExit();
+        IndexedChronicle chronicle = new IndexedChronicle(basePath, 12);
+        chronicle.checksums(true);
+        chronicle.timeIndex(100, Long.MAX_VALUE);
+        Excerpt excerpt = chronicle.createExcerpt();
+        append(excerpt, 1, 10001);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            ChronicleVerifier.Result result = ChronicleVerifier.verify(chronicle, executor, 100);
+            assertTrue(result.toString(), result.isConsistent());
+            assertEquals(10000, result.consistentSize());
+
+            // a batch which was never finished.
+            excerpt.startBatch();
+            append(excerpt, 10001, 10004);
+            result = ChronicleVerifier.verify(chronicle, executor, 100);
+            assertFalse(result.isConsistent());
+            assertEquals(10000, result.consistentSize());
+            assertEquals(10003, result.lastEntry());
+            assertTrue(result.anomalies().get(0), result.anomalies().get(0).contains("not committed"));
+
+            ChronicleVerifier.truncate(chronicle, result);
+            assertEquals(10000, chronicle.size());
+            result = ChronicleVerifier.verify(chronicle, executor, 100);
+            assertTrue(result.toString(), result.isConsistent());
+
+            // a half written excerpt at the end.
+            Excerpt excerpt2 = chronicle.createExcerpt();
+            append(excerpt2, 10001, 10003);
+            assertTrue(excerpt2.index(10001));
+            // not finished, as finish() checks the start isn't zero.
+            excerpt2.writeLong(0, 0L);
+            result = ChronicleVerifier.verify(chronicle, executor, 100);
+            assertEquals(10001, result.consistentSize());
+            assertTrue(result.anomalies().get(0), result.anomalies().get(0).contains("incorrect checksum"));
+
+            // an index entry past the end of the data, and one after an unwritten entry.
+            chronicle.setIndexData(5001, 1L << 40);
+            chronicle.setIndexData(chronicle.indexCapacity() - 1, 16);
+            result = ChronicleVerifier.verify(chronicle, executor, 100);
+            assertEquals(5000, result.consistentSize());
+            assertEquals(3, result.anomalies().size());
+            assertTrue(result.anomalies().get(0), result.anomalies().get(0).contains("after the end of the data"));
+            assertTrue(result.anomalies().get(2), result.anomalies().get(2).contains("is not written"));
+
+            assertEquals(10000, chronicle.firstIndexFor(Long.MAX_VALUE));
+            ChronicleVerifier.truncate(chronicle, result);
+            assertEquals(5000, chronicle.size());
+            assertEquals(5000, chronicle.firstIndexFor(Long.MAX_VALUE));
+            assertTrue(ChronicleVerifier.verify(chronicle, executor, 100).isConsistent());
+            // appends carry on after the last consistent excerpt.
+            append(excerpt2, 5001, 5002);
+            assertTrue(excerpt2.index(5000));
+            assertEquals(5001, excerpt2.readLong());
+            excerpt2.finish();
+        } finally {
+            executor.shutdown();
+            chronicle.close();
+        }
+    }
+
+    @Test
+    public void testVerifyAfterRetention() throws IOException, InterruptedException {
+        String basePath = TMP + File.separator + "verify-retained";
+        ChronicleTools.deleteOnExit(basePath);
+        IndexedChronicle chronicle = new IndexedChronicle(basePath, 12);
+        Excerpt excerpt = chronicle.createExcerpt();
+        append(excerpt, 1, 5001);
+        assertEquals(3584, chronicle.retainExcerpts(1000, 0, 0));
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            ChronicleVerifier.Result result = ChronicleVerifier.verify(chronicle, executor, 100);
+            assertTrue(result.toString(), result.isConsistent());
+            assertEquals(5000, result.consistentSize());
+            assertEquals(5000, result.lastEntry());
+
+            ChronicleVerifier.truncate(chronicle, result);
+            assertEquals(5000, chronicle.size());
+            assertEquals(3584, chronicle.firstIndex());
+            assertTrue(excerpt.index(4999));
+            assertEquals(5000, excerpt.readLong());
+            excerpt.finish();
+        } finally {
+            executor.shutdown();
+            chronicle.close();
+        }
+    }
+}
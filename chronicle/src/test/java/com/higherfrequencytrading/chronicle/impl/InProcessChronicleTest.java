@@ -27,8 +27,14 @@ import java.io.*;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
 
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
 
 /**
  * @author peter.lawrey
@@ -89,6 +95,79 @@ public class InProcessChronicleTest {
         System.out.printf("Messages per second %,d%n", (int) (messages * 1e9 / time));
     }
 
+    @Test
+    public void testSinkAheadOfSource() throws IOException, InterruptedException {
+        String baseDir = System.getProperty("java.io.tmpdir");
+        String srcBasePath = baseDir + "/IPCT.testSinkAheadOfSource.source";
+        ChronicleTools.deleteOnExit(srcBasePath);
+        String snkBasePath = baseDir + "/IPCT.testSinkAheadOfSource.sink";
+        ChronicleTools.deleteOnExit(snkBasePath);
+        IndexedChronicle sinkChronicle = new IndexedChronicle(snkBasePath);
+        sinkChronicle.clear();
+        Excerpt excerpt = sinkChronicle.createExcerpt();
+        for (int i = 1; i <= 5; i++) {
+            excerpt.startExcerpt(8);
+            excerpt.writeLong(i);
+            excerpt.finish();
+        }
+        // the sink asks for excerpt 5, which the source hasn't written yet.
+        final List<String> disconnects = new ArrayList<String>();
+        Logger logger = Logger.getLogger(InProcessChronicleSource.class.getName());
+        Handler handler = new Handler() {
+            @Override
+            public void publish(LogRecord record) {
+                if (record.getMessage().contains("died"))
+                    disconnects.add(record.getMessage());
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        logger.addHandler(handler);
+        IndexedChronicle sourceChronicle = new IndexedChronicle(srcBasePath);
+        sourceChronicle.clear();
+        Chronicle source = new InProcessChronicleSource(sourceChronicle, PORT + 4);
+        final Chronicle sink = new InProcessChronicleSink(sinkChronicle, "localhost", PORT + 4);
+        // the sink connects when first read, before the source has anything.
+        final AtomicReference<Throwable> failed = new AtomicReference<Throwable>();
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Excerpt excerpt3 = sink.createExcerpt();
+                    for (int i = 0; i < 10; i++) {
+                        long end = System.currentTimeMillis() + 5000;
+                        while (!excerpt3.index(i))
+                            assertTrue("excerpt " + i, System.currentTimeMillis() < end);
+                        assertEquals(i < 5 ? i + 1 : i * 10 + 10, excerpt3.readLong());
+                        excerpt3.finish();
+                    }
+                } catch (Throwable t) {
+                    failed.set(t);
+                }
+            }
+        });
+        reader.start();
+        Thread.sleep(200);
+        Excerpt excerpt2 = source.createExcerpt();
+        for (int i = 1; i <= 10; i++) {
+            excerpt2.startExcerpt(8);
+            excerpt2.writeLong(i * 10);
+            excerpt2.finish();
+        }
+        reader.join(10000);
+        assertNull(String.valueOf(failed.get()), failed.get());
+        logger.removeHandler(handler);
+        assertTrue(disconnects.toString(), disconnects.isEmpty());
+        sink.close();
+        source.close();
+    }
+
     interface PriceListener {
         public void onPrice(long timeInMicros, String symbol, double bp, int bq, double ap, int aq);
     }
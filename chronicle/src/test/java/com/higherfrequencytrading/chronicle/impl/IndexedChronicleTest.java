@@ -17,15 +17,21 @@
 package com.higherfrequencytrading.chronicle.impl;
 
 import com.higherfrequencytrading.chronicle.Excerpt;
+import com.higherfrequencytrading.chronicle.TimeExtractor;
+import com.higherfrequencytrading.chronicle.tools.ChronicleTools;
 import org.junit.Assert;
 import org.junit.Ignore;
 import org.junit.Test;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.nio.ByteOrder;
+import java.nio.ReadOnlyBufferException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
 
 import static junit.framework.Assert.*;
 
@@ -109,6 +115,770 @@ public class IndexedChronicleTest {
         tsc.close(); // used to throw an exception.
     }
 
+    @Test
+    public void testFindSizeOnRestart() throws IOException {
+        String basePath = TMP + File.separator + "deleteme.restart";
+        // index segments hold 512 entries.
+        for (int count : new int[]{0, 1, 2, 511, 512, 513, 1023, 1024, 1025, 4000}) {
+            ChronicleTools.deleteOnExit(basePath);
+            IndexedChronicle tsc = new IndexedChronicle(basePath, 12);
+            Excerpt excerpt = tsc.createExcerpt();
+            for (int i = 0; i < count; i++) {
+                excerpt.startExcerpt(8);
+                excerpt.writeLong(i + 1);
+                excerpt.finish();
+            }
+            tsc.close();
+
+            IndexedChronicle tsc2 = new IndexedChronicle(basePath, 12);
+            assertEquals(count, tsc2.size());
+            // the next excerpt goes on the end.
+            Excerpt excerpt2 = tsc2.createExcerpt();
+            excerpt2.startExcerpt(8);
+            excerpt2.writeLong(count + 1);
+            excerpt2.finish();
+            assertEquals(count, excerpt2.index());
+            if (count > 0) {
+                assertTrue(excerpt2.index(count - 1));
+                assertEquals(count, excerpt2.readLong());
+            }
+            tsc2.close();
+        }
+    }
+
+    @Test
+    public void testPunchHolesBefore() throws IOException {
+        for (boolean minimiseByteBuffers : new boolean[]{false, true}) {
+            String basePath = TMP + File.separator + "deleteme.holes";
+            ChronicleTools.deleteOnExit(basePath);
+            // index segments hold 512 entries.
+            IndexedChronicle tsc = new IndexedChronicle(basePath, 12, ByteOrder.nativeOrder(), minimiseByteBuffers);
+            Excerpt excerpt = tsc.createExcerpt();
+            for (int i = 0; i < 5000; i++) {
+                excerpt.startExcerpt(16);
+                excerpt.writeLong(i + 1);
+                excerpt.writeLong(i);
+                excerpt.finish();
+            }
+            Excerpt reader = tsc.createExcerpt();
+            assertTrue(reader.index(4000));
+            long sizeInBytes = tsc.sizeInBytes();
+
+            // keep at least 1000 excerpts.
+            long first = tsc.retainExcerpts(1000, 0, 0);
+            if (!SparseFiles.isSupported()) {
+                assertEquals(0, first);
+                tsc.close();
+                continue;
+            }
+            assertEquals(3584, first);
+            assertEquals(first, tsc.firstIndex());
+            assertEquals(sizeInBytes, tsc.sizeInBytes());
+            assertEquals(5000, tsc.size());
+            // the reader is not disturbed.
+            assertEquals(4001, reader.readLong());
+            reader.finish();
+            assertFalse(reader.index(first - 1));
+            assertFalse(reader.index(10));
+            for (long i = first; i < 5000; i++) {
+                assertTrue(reader.index(i));
+                assertEquals(i + 1, reader.readLong());
+                assertEquals(i, reader.readLong());
+                reader.finish();
+            }
+            // the excerpts freed read as zeros.
+            RandomAccessFile raf = new RandomAccessFile(basePath + ".data", "r");
+            assertEquals(0, raf.readLong());
+            raf.close();
+
+            // still appends and finds the end on restart.
+            excerpt.startExcerpt(16);
+            excerpt.writeLong(5001);
+            excerpt.writeLong(5000);
+            excerpt.finish();
+            assertEquals(first, tsc.retainExcerpts(1000, 0, 0));
+            tsc.close();
+
+            IndexedChronicle tsc2 = new IndexedChronicle(basePath, 12, ByteOrder.nativeOrder(), minimiseByteBuffers);
+            assertEquals(5001, tsc2.size());
+            assertEquals(first, tsc2.firstIndex());
+            Excerpt reader2 = tsc2.createExcerpt();
+            assertTrue(reader2.index(5000));
+            assertEquals(5001, reader2.readLong());
+            reader2.finish();
+
+            // keep at most 16 KB of index and data.
+            long first2 = tsc2.retainExcerpts(0, 16 * 1024, 0);
+            assertEquals(4096, first2);
+            assertTrue(reader2.index(first2));
+            assertEquals(first2 + 1, reader2.readLong());
+            reader2.finish();
+            tsc2.close();
+        }
+    }
+
+    @Test
+    public void testAsyncMapping() throws IOException {
+        boolean[] booleans = {false, true};
+        for (boolean minimiseByteBuffers : booleans)
+            for (boolean preTouch : booleans)
+                doAsyncMapping(minimiseByteBuffers, preTouch);
+    }
+
+    private void doAsyncMapping(boolean minimiseByteBuffers, boolean preTouch) throws IOException {
+        String basePath = TMP + File.separator + "deleteme.async";
+        deleteOnExit(basePath);
+        IndexedChronicle tsc = new IndexedChronicle(basePath, 12, ByteOrder.nativeOrder(), minimiseByteBuffers);
+        tsc.clear();
+        tsc.asyncMapping(true);
+        tsc.preTouch(preTouch);
+        assertTrue(tsc.asyncMapping());
+
+        // 4 KB data segments and 512 byte index segments so the writer crosses many boundaries.
+        Excerpt excerpt = tsc.createExcerpt();
+        for (int i = 1; i <= 20000; i++) {
+            excerpt.startExcerpt(24);
+            excerpt.writeLong(i);
+            excerpt.writeLong(i * 2);
+            excerpt.writeLong(i * 3);
+            excerpt.finish();
+        }
+
+        Excerpt excerpt2 = tsc.createExcerpt();
+        for (int i = 1; i <= 20000; i++) {
+            assertTrue(excerpt2.nextIndex());
+            assertEquals(i, excerpt2.readLong());
+            assertEquals(i * 2, excerpt2.readLong());
+            assertEquals(i * 3, excerpt2.readLong());
+            excerpt2.finish();
+        }
+        assertFalse(excerpt2.nextIndex());
+        tsc.close();
+        assertFalse(tsc.asyncMapping());
+    }
+
+    @Test
+    public void testConcurrentAppends() throws IOException, InterruptedException {
+        String basePath = TMP + File.separator + "deleteme.concurrent";
+        deleteOnExit(basePath);
+        final IndexedChronicle tsc = new IndexedChronicle(basePath, 12);
+        tsc.clear();
+        tsc.concurrentAppends(true);
+        // each appender asks the mapper for the next segments.
+        tsc.asyncMapping(true);
+
+        final int threads = 4, runs = 20000;
+        Thread[] appenders = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int id = t;
+            appenders[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Excerpt excerpt = tsc.createExcerpt();
+                    for (int i = 0; i < runs; i++) {
+                        excerpt.startExcerpt(16);
+                        excerpt.writeInt(id + 1);
+                        excerpt.writeLong(i);
+                        excerpt.finish();
+                    }
+                }
+            });
+            appenders[t].start();
+        }
+
+        // read while the appenders are running.
+        int[] next = new int[threads];
+        Excerpt excerpt = tsc.createExcerpt();
+        for (int n = 0; n < threads * runs; n++) {
+            while (!excerpt.nextIndex()) ;
+            int id = excerpt.readInt() - 1;
+            assertEquals(next[id]++, excerpt.readLong());
+            excerpt.finish();
+        }
+        for (Thread appender : appenders)
+            appender.join();
+        assertFalse(excerpt.nextIndex());
+        assertEquals(threads * runs, tsc.size());
+        for (int n : next)
+            assertEquals(runs, n);
+        tsc.close();
+    }
+
+    @Test
+    public void testSharedHeader() throws IOException {
+        String basePath = TMP + File.separator + "deleteme.header";
+        deleteOnExit(basePath);
+        // two Chronicles on the same files have their own mappings as two processes would.
+        IndexedChronicle tsc = new IndexedChronicle(basePath, 12);
+        tsc.clear();
+        tsc.concurrentAppends(true);
+        IndexedChronicle tsc2 = new IndexedChronicle(basePath, 12);
+        tsc2.concurrentAppends(true);
+
+        Excerpt excerpt = tsc.createExcerpt();
+        Excerpt excerpt2 = tsc2.createExcerpt();
+        for (int i = 1; i <= 2000; i++) {
+            Excerpt e = i % 3 == 0 ? excerpt2 : excerpt;
+            e.startExcerpt(8);
+            e.writeLong(i);
+            e.finish();
+            assertEquals(i, tsc.size());
+            assertEquals(i, tsc2.size());
+        }
+        tsc.close();
+        tsc2.close();
+
+        IndexedChronicle tsc3 = new IndexedChronicle(basePath, 12);
+        tsc3.concurrentAppends(true);
+        assertEquals(2000, tsc3.size());
+        Excerpt excerpt3 = tsc3.createExcerpt();
+        for (int i = 1; i <= 2000; i++) {
+            assertTrue(excerpt3.nextIndex());
+            assertEquals(i, excerpt3.readLong());
+            excerpt3.finish();
+        }
+        assertFalse(excerpt3.nextIndex());
+        tsc3.close();
+    }
+
+    @Test
+    public void testCachedSegments() throws IOException {
+        String basePath = TMP + File.separator + "deleteme.cached";
+        deleteOnExit(basePath);
+        IndexedChronicle tsc = new IndexedChronicle(basePath, 12);
+        tsc.cachedSegments(3);
+        assertEquals(3, tsc.cachedSegments());
+        tsc.clear();
+
+        // 4 KB data segments so these span about 50 segments.
+        Excerpt excerpt = tsc.createExcerpt();
+        for (int i = 1; i <= 2000; i++) {
+            excerpt.startExcerpt(100);
+            excerpt.writeLong(i);
+            excerpt.position(92);
+            excerpt.writeLong(-i);
+            excerpt.finish();
+        }
+
+        // two readers at different points and some random access.
+        Excerpt excerpt2 = tsc.createExcerpt();
+        Random random = new Random(1);
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(excerpt.index(i));
+            assertEquals(i + 1, excerpt.readLong());
+            int j = 1999 - i;
+            assertTrue(excerpt2.index(j));
+            assertEquals(j + 1, excerpt2.readLong());
+            int k = random.nextInt(2000);
+            assertTrue(excerpt2.index(k));
+            excerpt2.position(92);
+            assertEquals(-k - 1, excerpt2.readLong());
+        }
+        tsc.close();
+    }
+
+    @Test
+    public void testEvictedSegmentsUnmappedWhenReleased() throws IOException {
+        for (boolean useUnsafe : new boolean[]{false, true}) {
+            String basePath = TMP + File.separator + "deleteme.released";
+            deleteOnExit(basePath);
+            IndexedChronicle tsc = new IndexedChronicle(basePath, 12);
+            tsc.useUnsafe(useUnsafe);
+            tsc.cachedSegments(1);
+            tsc.clear();
+
+            Excerpt excerpt = tsc.createExcerpt();
+            excerpt.startExcerpt(8);
+            excerpt.writeLong(-1);
+            excerpt.finish();
+            // hold on to the first segment while the writer moves through others.
+            Excerpt reader = tsc.createExcerpt();
+            assertTrue(reader.index(0));
+
+            for (int i = 1; i <= 2000; i++) {
+                excerpt.startExcerpt(100);
+                excerpt.writeLong(i);
+                excerpt.position(92);
+                excerpt.writeLong(-i);
+                excerpt.finish();
+            }
+            // still mapped.
+            assertEquals(-1, reader.readLong());
+            reader.finish();
+
+            for (int i = 1; i <= 2000; i += 13) {
+                assertTrue(reader.index(i));
+                assertEquals(i, reader.readLong());
+            }
+            tsc.close();
+        }
+    }
+
+    @Test
+    public void testGroupCommit() throws IOException, InterruptedException {
+        String basePath = TMP + File.separator + "deleteme.group";
+        deleteOnExit(basePath);
+        IndexedChronicle tsc = new IndexedChronicle(basePath, 12, ByteOrder.nativeOrder(), false, true);
+        tsc.clear();
+        // a long period so only the number of excerpts or a waiting appender triggers a commit.
+        tsc.groupCommit(10 * 1000 * 1000, 100);
+        assertTrue(tsc.groupCommit());
+        assertFalse(tsc.synchronousMode());
+
+        Excerpt excerpt = tsc.createExcerpt();
+        for (int i = 1; i <= 1000; i++) {
+            excerpt.startExcerpt(100);
+            excerpt.writeLong(i);
+            excerpt.position(92);
+            excerpt.writeLong(-i);
+            excerpt.finish();
+        }
+        assertTrue(tsc.awaitDurable(1000, 5, TimeUnit.SECONDS));
+        assertEquals(1000, tsc.durableSize());
+
+        excerpt.startExcerpt(8);
+        excerpt.writeLong(1001);
+        excerpt.finish();
+        assertTrue(tsc.awaitDurable(1001, 5, TimeUnit.SECONDS));
+        tsc.close();
+        assertFalse(tsc.groupCommit());
+    }
+
+    @Test
+    public void testChecksums() throws IOException {
+        for (boolean concurrentAppends : new boolean[]{false, true}) {
+            String basePath = TMP + File.separator + "deleteme.checksums" + concurrentAppends;
+            deleteOnExit(basePath);
+            IndexedChronicle tsc = new IndexedChronicle(basePath, 12);
+            tsc.clear();
+            tsc.checksums(true);
+            tsc.concurrentAppends(concurrentAppends);
+
+            Excerpt excerpt = tsc.createExcerpt();
+            for (int i = 1; i <= 1000; i++) {
+                excerpt.startExcerpt(100);
+                excerpt.writeLong(i);
+                excerpt.writeLong(-i);
+                excerpt.finish();
+            }
+
+            tsc.checksumVerification(ChecksumVerification.ALWAYS);
+            Excerpt excerpt2 = tsc.createExcerpt();
+            for (int i = 1; i <= 1000; i++) {
+                assertTrue(excerpt2.nextIndex());
+                assertEquals(concurrentAppends ? 100 : 16, excerpt2.capacity());
+                assertEquals(i, excerpt2.readLong());
+                assertEquals(-i, excerpt2.readLong());
+                excerpt2.finish();
+            }
+
+            // corrupt one excerpt.
+            assertTrue(excerpt2.index(500));
+            excerpt2.writeLong(8, 12345);
+            excerpt2.finish();
+            try {
+                excerpt2.index(500);
+                fail();
+            } catch (IllegalStateException expected) {
+            }
+            tsc.checksumVerification(ChecksumVerification.NONE);
+            assertTrue(excerpt2.index(500));
+            assertFalse(((AbstractExcerpt) excerpt2).verifyChecksum());
+            assertTrue(excerpt2.index(501));
+            assertTrue(((AbstractExcerpt) excerpt2).verifyChecksum());
+            tsc.close();
+        }
+    }
+
+    @Test
+    public void testLargeExcerpts() throws IOException {
+        for (boolean useUnsafe : new boolean[]{false, true}) {
+            for (boolean concurrentAppends : new boolean[]{false, true}) {
+                String basePath = TMP + File.separator + "deleteme.large" + useUnsafe + concurrentAppends;
+                deleteOnExit(basePath);
+                // 4 KB data segments.
+                IndexedChronicle tsc = new IndexedChronicle(basePath, 12);
+                tsc.useUnsafe(useUnsafe);
+                tsc.clear();
+                tsc.concurrentAppends(concurrentAppends);
+
+                Excerpt excerpt = tsc.createExcerpt();
+                for (int i = 1; i <= 20; i++) {
+                    // alternate small excerpts and ones spanning several segments.
+                    int longs = i % 2 == 0 ? 2 : 1000 * i;
+                    excerpt.startExcerpt(longs * 8);
+                    for (int j = 0; j < longs; j++)
+                        excerpt.writeLong(i * 1000000L + j);
+                    excerpt.finish();
+                }
+
+                Excerpt excerpt2 = tsc.createExcerpt();
+                for (int i = 1; i <= 20; i++) {
+                    assertTrue(excerpt2.nextIndex());
+                    int longs = i % 2 == 0 ? 2 : 1000 * i;
+                    assertEquals(longs * 8, excerpt2.capacity());
+                    for (int j = 0; j < longs; j++)
+                        assertEquals(i * 1000000L + j, excerpt2.readLong());
+                    excerpt2.finish();
+                }
+                assertFalse(excerpt2.nextIndex());
+                tsc.close();
+            }
+        }
+    }
+
+    @Test
+    public void testAutoGrowExcerpts() throws IOException {
+        for (boolean useUnsafe : new boolean[]{false, true}) {
+            String basePath = TMP + File.separator + "deleteme.autogrow" + useUnsafe;
+            deleteOnExit(basePath);
+            // 4 KB data segments.
+            IndexedChronicle tsc = new IndexedChronicle(basePath, 12);
+            tsc.useUnsafe(useUnsafe);
+            tsc.clear();
+            tsc.autoGrowExcerpts(true);
+
+            Excerpt excerpt = tsc.createExcerpt();
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 100; i++) {
+                sb.append((char) ('a' + i % 26));
+                // grows in place, or moves to the next segment.
+                excerpt.startExcerpt(8);
+                for (int j = 0; j <= i; j++) {
+                    excerpt.ensureCapacity(8);
+                    excerpt.writeLong(i + 1);
+                }
+                excerpt.finish();
+                // larger than a segment at the end.
+                excerpt.startExcerpt(8);
+                excerpt.writeUTF(sb);
+                sb.append(sb.length() > 3000 ? "" : sb);
+                excerpt.finish();
+            }
+
+            Excerpt excerpt2 = tsc.createExcerpt();
+            sb.setLength(0);
+            for (int i = 0; i < 100; i++) {
+                sb.append((char) ('a' + i % 26));
+                assertTrue(excerpt2.nextIndex());
+                // padded if the next one moved to a new segment.
+                assertTrue(excerpt2.capacity() >= (i + 1) * 8);
+                for (int j = 0; j <= i; j++)
+                    assertEquals(i + 1, excerpt2.readLong());
+                assertTrue(excerpt2.nextIndex());
+                assertEquals(sb.toString(), excerpt2.readUTF());
+                sb.append(sb.length() > 3000 ? "" : sb);
+            }
+            excerpt2.finish();
+            tsc.close();
+        }
+    }
+
+    @Test
+    public void testBatchAppends() throws IOException {
+        String basePath = TMP + File.separator + "deleteme.batch";
+        deleteOnExit(basePath);
+        // 4 KB data segments so some batches span them.
+        IndexedChronicle tsc = new IndexedChronicle(basePath, 12);
+        tsc.clear();
+
+        Excerpt excerpt = tsc.createExcerpt();
+        Excerpt excerpt2 = tsc.createExcerpt();
+        int count = 0;
+        for (int b = 1; b <= 20; b++) {
+            excerpt.startBatch();
+            for (int i = 0; i < b; i++) {
+                excerpt.startExcerpt(48);
+                excerpt.writeLong(++count);
+                excerpt.position(48);
+                excerpt.finish();
+                assertEquals(count - i - 1, excerpt2.size());
+                assertFalse(excerpt2.index(count - i - 1));
+            }
+            excerpt.finishBatch();
+            assertEquals(count, excerpt2.size());
+        }
+        for (int i = 1; i <= count; i++) {
+            assertTrue(excerpt2.nextIndex());
+            assertEquals(i, excerpt2.readLong());
+            excerpt2.finish();
+        }
+        assertFalse(excerpt2.nextIndex());
+        tsc.close();
+
+        String basePath2 = TMP + File.separator + "deleteme.batch.int";
+        deleteOnExit(basePath2);
+        IntIndexedChronicle iic = new IntIndexedChronicle(basePath2, 12);
+        try {
+            iic.createExcerpt().startBatch();
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        iic.close();
+    }
+
+    @Test
+    public void testReadAhead() throws IOException {
+        String basePath = TMP + File.separator + "readAhead.ict";
+        deleteOnExit(basePath);
+        IndexedChronicle tsc = new IndexedChronicle(basePath, 16);
+        tsc.clear();
+        Excerpt excerpt = tsc.createExcerpt();
+        int runs = 100000;
+        for (int i = 0; i < runs; i++) {
+            excerpt.startExcerpt(24);
+            excerpt.writeLong(i + 1);
+            excerpt.writeLong(i * 3);
+            excerpt.writeLong(-i);
+            excerpt.finish();
+        }
+        tsc.close();
+
+        // read ahead through segments which are unmapped as the reader moves on.
+        IndexedChronicle tsc2 = new IndexedChronicle(basePath, 16);
+        tsc2.cachedSegments(2);
+        Excerpt reader = tsc2.createExcerpt();
+        reader.readAhead(256 * 1024);
+        for (int i = 0; i < runs; i++) {
+            assertTrue(reader.nextIndex());
+            assertEquals(i + 1, reader.readLong());
+            assertEquals(i * 3, reader.readLong());
+            assertEquals(-i, reader.readLong());
+            reader.finish();
+        }
+        assertFalse(reader.nextIndex());
+        // and after moving back.
+        assertTrue(reader.index(10));
+        assertEquals(11, reader.readLong());
+        reader.finish();
+        tsc2.close();
+    }
+
+    @Test
+    public void testReadOnly() throws IOException {
+        String basePath = TMP + File.separator + "readOnly.ict";
+        deleteOnExit(basePath);
+        IndexedChronicle tsc = new IndexedChronicle(basePath, 12);
+        tsc.useUnsafe(true);
+        tsc.clear();
+        Excerpt excerpt = tsc.createExcerpt();
+        for (int i = 1; i <= 1000; i++) {
+            excerpt.startExcerpt(8);
+            excerpt.writeLong(i);
+            excerpt.finish();
+        }
+
+        IndexedChronicle reader = new IndexedChronicle(basePath, 12, ByteOrder.nativeOrder(), false, false, true);
+        reader.useUnsafe(true);
+        assertFalse(reader.useUnsafe());
+        assertEquals(1000, reader.size());
+        Excerpt excerpt2 = reader.createExcerpt();
+        for (int i = 1; i <= 1000; i++) {
+            assertTrue(excerpt2.nextIndex());
+            assertEquals(i, excerpt2.readLong());
+            excerpt2.finish();
+        }
+        assertFalse(excerpt2.nextIndex());
+        // past the end of the index file.
+        assertFalse(excerpt2.index(1000 * 1000));
+
+        // the excerpts can't be changed or added to.
+        assertTrue(excerpt2.index(5));
+        try {
+            excerpt2.writeLong(0, 0);
+            fail();
+        } catch (ReadOnlyBufferException expected) {
+        }
+        excerpt2.finish();
+        try {
+            excerpt2.startExcerpt(8);
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+
+        // sees excerpts added by the writer.
+        excerpt.startExcerpt(8);
+        excerpt.writeLong(1001);
+        excerpt.finish();
+        assertEquals(1001, reader.size());
+        assertTrue(excerpt2.index(1000));
+        assertEquals(1001, excerpt2.readLong());
+        excerpt2.finish();
+
+        // the size is found from the last one, including after the index file has grown.
+        for (int n : new int[]{1, 2, 3, 100, 511, 512, 5000}) {
+            for (int i = 0; i < n; i++) {
+                excerpt.startExcerpt(8);
+                excerpt.writeLong(tsc.size() + 1);
+                excerpt.finish();
+            }
+            assertEquals(tsc.size(), reader.size());
+            assertEquals(tsc.size(), reader.size());
+        }
+        assertTrue(excerpt2.index(tsc.size() - 1));
+        assertEquals(tsc.size(), excerpt2.readLong());
+        excerpt2.finish();
+
+        reader.close();
+        tsc.close();
+    }
+
+    @Test
+    public void testExcerptAlignment() throws IOException {
+        for (int alignment : new int[]{8, 64}) {
+            String basePath = TMP + File.separator + "aligned-" + alignment + ".ict";
+            deleteOnExit(basePath);
+            IndexedChronicle tsc = new IndexedChronicle(basePath, 12);
+            tsc.useUnsafe(true);
+            tsc.clear();
+            tsc.excerptAlignment(alignment);
+            Excerpt excerpt = tsc.createExcerpt();
+            for (int i = 1; i <= 1000; i++) {
+                excerpt.startExcerpt(13);
+                excerpt.writeLong(i);
+                excerpt.writeInt(i);
+                excerpt.writeByte(i);
+                excerpt.finish();
+            }
+            Excerpt reader = tsc.createExcerpt();
+            for (int i = 1; i <= 1000; i++) {
+                assertTrue(reader.nextIndex());
+                assertEquals(0, tsc.getIndexData(reader.index()) % alignment);
+                assertEquals(i, reader.readLong());
+                assertEquals(i, reader.readInt());
+                assertEquals((byte) i, reader.readByte());
+                reader.finish();
+            }
+            // each excerpt takes a multiple of the alignment, apart from the last.
+            assertEquals(999L * ((13 + alignment - 1) / alignment * alignment) + 13, tsc.getIndexData(1000));
+            tsc.close();
+        }
+        try {
+            new IndexedChronicle(TMP + File.separator + "aligned-24.ict", 12).excerptAlignment(24);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        } finally {
+            deleteOnExit(TMP + File.separator + "aligned-24.ict");
+        }
+    }
+
+    @Test
+    public void testPreFaultWindow() throws IOException, InterruptedException {
+        String basePath = TMP + File.separator + "preFault.ict";
+        deleteOnExit(basePath);
+        IndexedChronicle tsc = new IndexedChronicle(basePath, 16);
+        tsc.clear();
+        tsc.preFaultWindow(256 * 1024);
+        Excerpt excerpt = tsc.createExcerpt();
+        excerpt.startExcerpt(24);
+        excerpt.writeLong(1);
+        excerpt.finish();
+        // the data file is extended past the window in the background.
+        File data = new File(basePath + ".data");
+        for (int i = 0; i < 1000 && data.length() < 256 * 1024; i++)
+            Thread.sleep(10);
+        assertTrue(data.length() >= 256 * 1024);
+
+        // the window moves along with the appender.
+        int runs = 100000;
+        for (int i = 1; i < runs; i++) {
+            excerpt.startExcerpt(24);
+            excerpt.writeLong(i + 1);
+            excerpt.writeLong(i * 3);
+            excerpt.writeLong(-i);
+            excerpt.finish();
+        }
+        long end = tsc.getIndexData(runs);
+        for (int i = 0; i < 1000 && data.length() < end + 128 * 1024; i++)
+            Thread.sleep(10);
+        assertTrue(data.length() >= end + 128 * 1024);
+
+        Excerpt reader = tsc.createExcerpt();
+        assertTrue(reader.index(0));
+        assertEquals(1, reader.readLong());
+        reader.finish();
+        for (int i = 1; i < runs; i++) {
+            assertTrue(reader.nextIndex());
+            assertEquals(i + 1, reader.readLong());
+            assertEquals(i * 3, reader.readLong());
+            assertEquals(-i, reader.readLong());
+            reader.finish();
+        }
+        assertFalse(reader.nextIndex());
+        tsc.preFaultWindow(0);
+        assertEquals(0, tsc.preFaultWindow());
+        tsc.close();
+    }
+
+    @Test
+    public void testSeekToTime() throws IOException, InterruptedException {
+        String basePath = TMP + File.separator + "deleteme.time";
+        deleteOnExit(basePath);
+        IndexedChronicle tsc = new IndexedChronicle(basePath, 12);
+        tsc.clear();
+        Excerpt excerpt = tsc.createExcerpt();
+        // without a time index, start at the beginning.
+        assertFalse(excerpt.seekToTime(System.currentTimeMillis()));
+        assertEquals(-1, excerpt.index());
+
+        tsc.timeIndex(10, 60 * 1000);
+        long[] times = new long[5];
+        for (int i = 0; i < 500; i++) {
+            if (i % 100 == 0) {
+                Thread.sleep(5);
+                times[i / 100] = System.currentTimeMillis();
+                Thread.sleep(5);
+            }
+            excerpt.startExcerpt(16);
+            excerpt.writeLong(i + 1);
+            excerpt.writeLong(System.currentTimeMillis());
+            excerpt.finish();
+        }
+        tsc.close();
+
+        // a reader opening the same files.
+        IndexedChronicle tsc2 = new IndexedChronicle(basePath, 12);
+        tsc2.timeIndex(10, 60 * 1000);
+        Excerpt excerpt2 = tsc2.createExcerpt();
+        for (int i = 0; i < times.length; i++) {
+            assertTrue(excerpt2.seekToTime(times[i]));
+            // at most one interval of the time index before.
+            long index = excerpt2.index();
+            assertTrue(index + " for " + i, i * 100 - 10 < index && index <= i * 100);
+            assertEquals(index + 1, excerpt2.readLong());
+        }
+        // only the last interval might be later.
+        excerpt2.seekToTime(System.currentTimeMillis() + 1);
+        assertTrue(excerpt2.index() >= 489);
+
+        // exactly, with the time in each excerpt.
+        TimeExtractor extractor = new TimeExtractor() {
+            @Override
+            public long timeMillis(Excerpt excerpt) {
+                return excerpt.readLong(8);
+            }
+        };
+        for (int i = 0; i < times.length; i++) {
+            assertTrue(excerpt2.seekToTime(times[i], extractor));
+            assertEquals(i * 100, excerpt2.index());
+            assertEquals(i * 100 + 1, excerpt2.readLong());
+        }
+        assertFalse(excerpt2.seekToTime(System.currentTimeMillis() + 1, extractor));
+        assertEquals(499, excerpt2.index());
+        tsc2.close();
+    }
+
+    @Test
+    public void testSegmentCacheEvictsLeastRecentlyUsed() {
+        SegmentCache cache = new SegmentCache(2, false);
+        assertNull(cache.add(new IndexedChronicle.MappedSegment(1, null)));
+        assertNull(cache.add(new IndexedChronicle.MappedSegment(2, null)));
+        cache.get(1);
+        assertEquals(2, cache.add(new IndexedChronicle.MappedSegment(3, null)).id);
+        assertEquals(1, cache.add(new IndexedChronicle.MappedSegment(4, null)).id);
+        assertEquals(2, cache.clear().length);
+    }
+
     @Test
     @Ignore
     public void testTimeTenMillion() throws IOException {
@@ -269,6 +1039,8 @@ public class IndexedChronicleTest {
     private static void deleteOnExit(String basePath) {
         new File(basePath + ".data").deleteOnExit();
         new File(basePath + ".index").deleteOnExit();
+        new File(basePath + ".header").deleteOnExit();
+        new File(basePath + ".time").deleteOnExit();
     }
 
     @Test
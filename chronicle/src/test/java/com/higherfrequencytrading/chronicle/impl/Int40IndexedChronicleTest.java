@@ -0,0 +1,103 @@
+/*
+ * Copyright 2013 Peter Lawrey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.higherfrequencytrading.chronicle.impl;
+
+import com.higherfrequencytrading.chronicle.Excerpt;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+
+import static junit.framework.Assert.*;
+
+/**
+ * @author peter.lawrey
+ */
+public class Int40IndexedChronicleTest {
+    @Test
+    public void rewritibleEntries() throws IOException {
+        doRewriteableEntries(false);
+        doRewriteableEntries(true);
+    }
+
+    private static void doRewriteableEntries(boolean useUnsafe) throws IOException {
+        String basePath = IndexedChronicleTest.TMP + File.separator + "deleteme.i40ct";
+        IndexedChronicle tsc = new Int40IndexedChronicle(basePath, 12);
+        tsc.useUnsafe(useUnsafe);
+        deleteOnExit(basePath);
+
+        tsc.clear();
+        Excerpt excerpt = tsc.createExcerpt();
+
+        int counter = 1;
+        for (int i = 0; i < 1024; i++) {
+            excerpt.startExcerpt(129);
+            for (int j = 0; j < 128; j += 8)
+                excerpt.writeLong(counter++);
+            excerpt.write(-1);
+            excerpt.finish();
+        }
+
+        counter = 1;
+        for (int i = 0; i < 1024; i++) {
+            assertTrue(excerpt.index(i));
+            for (int j = 0; j < 128; j += 8) {
+                long actual = excerpt.readLong();
+                long expected = counter++;
+                if (expected != actual)
+                    assertEquals(expected, actual);
+            }
+            assertEquals(-1, excerpt.readByte());
+            excerpt.finish();
+        }
+        assertFalse(excerpt.index(1024));
+        tsc.close();
+    }
+
+    @Test
+    public void beyond4GB() throws IOException {
+        for (ByteOrder byteOrder : new ByteOrder[]{ByteOrder.LITTLE_ENDIAN, ByteOrder.BIG_ENDIAN}) {
+            String basePath = IndexedChronicleTest.TMP + File.separator + "deleteme.i40ct2";
+            deleteOnExit(basePath);
+            IndexedChronicle tsc = new Int40IndexedChronicle(basePath, 12, byteOrder);
+            tsc.clear();
+            // neighbouring entries must not disturb each other.
+            for (int i = 1; i < 100; i++)
+                tsc.setIndexData(i, (5L << 32) + i * 12345L);
+            for (int i = 1; i < 100; i++)
+                assertEquals((5L << 32) + i * 12345L, tsc.getIndexData(i));
+            tsc.setIndexData(50, (1L << 40) - 1);
+            assertEquals((1L << 40) - 1, tsc.getIndexData(50));
+            assertEquals((5L << 32) + 49 * 12345L, tsc.getIndexData(49));
+            assertEquals((5L << 32) + 51 * 12345L, tsc.getIndexData(51));
+            try {
+                tsc.setIndexData(50, 1L << 40);
+                fail();
+            } catch (IllegalStateException expected) {
+            }
+            tsc.close();
+            //noinspection ResultOfMethodCallIgnored
+            new File(basePath + ".index").delete();
+        }
+    }
+
+    private static void deleteOnExit(String basePath) {
+        new File(basePath + ".data").deleteOnExit();
+        new File(basePath + ".index").deleteOnExit();
+    }
+}
@@ -0,0 +1,303 @@
+/*
+ * Copyright 2013 Peter Lawrey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.higherfrequencytrading.chronicle.impl;
+
+import com.higherfrequencytrading.chronicle.Excerpt;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static junit.framework.Assert.*;
+
+/**
+ * @author peter.lawrey
+ */
+public class RollingIndexedChronicleTest {
+    static final String TMP = System.getProperty("java.io.tmpdir");
+
+    private static String cleanDir(String name) {
+        File dir = new File(TMP, name);
+        File[] files = dir.listFiles();
+        if (files != null)
+            for (File file : files)
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+        return new File(dir, "journal").getPath();
+    }
+
+    @Test
+    public void testRollBySize() throws IOException {
+        String basePath = cleanDir("rolling-size");
+        // roll every 16 KB of data.
+        RollingIndexedChronicle chronicle = new RollingIndexedChronicle(basePath, 12, 0, 16 * 1024);
+        Excerpt excerpt = chronicle.createExcerpt();
+        int runs = 10000;
+        for (int i = 1; i <= runs; i++) {
+            excerpt.startExcerpt(16);
+            excerpt.writeLong(i);
+            excerpt.writeLong(excerpt.index());
+            excerpt.finish();
+        }
+        assertTrue(chronicle.lastCycle() > 5);
+        assertEquals(chronicle.lastCycle(), RollingIndexedChronicle.cycle(excerpt.index()));
+
+        // read across all the cycles.
+        Excerpt reader = chronicle.createExcerpt();
+        long lastIndex = -1;
+        for (int i = 1; i <= runs; i++) {
+            assertTrue(reader.nextIndex());
+            assertEquals(i, reader.readLong());
+            assertEquals(reader.index(), reader.readLong());
+            assertTrue(reader.index() > lastIndex);
+            lastIndex = reader.index();
+            reader.finish();
+        }
+        assertFalse(reader.nextIndex());
+
+        // random access by global index
+        assertTrue(reader.index(RollingIndexedChronicle.index(2, 3)));
+        assertEquals(RollingIndexedChronicle.index(2, 3), reader.readLong(8));
+
+        // drop the old cycles while still appending, with any other files they have.
+        int lastCycle = chronicle.lastCycle();
+        for (String suffix : new String[]{".header", ".time"})
+            assertTrue(new File(chronicle.cyclePath(0) + suffix).createNewFile());
+        chronicle.deleteCyclesBefore(lastCycle);
+        assertEquals(lastCycle, chronicle.firstCycle());
+        for (String suffix : new String[]{".index", ".data", ".start", ".header", ".time"})
+            assertFalse(new File(chronicle.cyclePath(0) + suffix).exists());
+        excerpt.startExcerpt(16);
+        excerpt.writeLong(runs + 1);
+        excerpt.writeLong(excerpt.index());
+        excerpt.finish();
+        chronicle.close();
+
+        // reopen and continue from the last cycle.
+        RollingIndexedChronicle chronicle2 = new RollingIndexedChronicle(basePath, 12, 0, 16 * 1024);
+        assertEquals(lastCycle, chronicle2.firstCycle());
+        Excerpt reader2 = chronicle2.createExcerpt();
+        long count = 0, last = 0;
+        while (reader2.nextIndex()) {
+            last = reader2.readLong();
+            count++;
+            reader2.finish();
+        }
+        assertEquals(runs + 1, last);
+        assertEquals(count, chronicle2.size());
+        assertEquals(RollingIndexedChronicle.localIndex(chronicle2.endIndex()), count);
+        chronicle2.close();
+    }
+
+    @Test
+    public void testRollByTime() throws IOException, InterruptedException {
+        String basePath = cleanDir("rolling-time");
+        RollingIndexedChronicle chronicle = new RollingIndexedChronicle(basePath, 12, 50, 0);
+        Excerpt excerpt = chronicle.createExcerpt();
+        for (int i = 1; i <= 3; i++) {
+            excerpt.startExcerpt(8);
+            excerpt.writeLong(i);
+            excerpt.finish();
+            Thread.sleep(60);
+        }
+        assertEquals(2, chronicle.lastCycle());
+        Excerpt reader = chronicle.createExcerpt();
+        for (int i = 1; i <= 3; i++) {
+            assertTrue(reader.nextIndex());
+            assertEquals(i - 1, RollingIndexedChronicle.cycle(reader.index()));
+            assertEquals(i, reader.readLong());
+        }
+        assertFalse(reader.nextIndex());
+        assertEquals(3, chronicle.size());
+        chronicle.close();
+    }
+
+    @Test
+    public void testRollAfterRestart() throws IOException, InterruptedException {
+        String basePath = cleanDir("rolling-restart");
+        RollingIndexedChronicle chronicle = new RollingIndexedChronicle(basePath, 12, 200, 0);
+        Excerpt excerpt = chronicle.createExcerpt();
+        excerpt.startExcerpt(8);
+        excerpt.writeLong(1);
+        excerpt.finish();
+        chronicle.close();
+        Thread.sleep(250);
+
+        // the cycle started before the restart is already due to roll.
+        RollingIndexedChronicle chronicle2 = new RollingIndexedChronicle(basePath, 12, 200, 0);
+        Excerpt excerpt2 = chronicle2.createExcerpt();
+        excerpt2.startExcerpt(8);
+        excerpt2.writeLong(2);
+        excerpt2.finish();
+        assertEquals(1, RollingIndexedChronicle.cycle(excerpt2.index()));
+        assertEquals(1, chronicle2.lastCycle());
+        chronicle2.close();
+    }
+
+    @Test
+    public void testReaderFindsNewCycles() throws IOException {
+        String basePath = cleanDir("rolling-reader");
+        RollingIndexedChronicle writer = new RollingIndexedChronicle(basePath, 12, 0, 16 * 1024);
+        // as a reader in another process would, it doesn't share the writer's state.
+        RollingIndexedChronicle readerChronicle = new RollingIndexedChronicle(basePath, 12, 0, 16 * 1024);
+        Excerpt reader = readerChronicle.createExcerpt();
+        Excerpt excerpt = writer.createExcerpt();
+        int runs = 5000;
+        for (int i = 1; i <= runs; i++) {
+            excerpt.startExcerpt(16);
+            excerpt.writeLong(i);
+            excerpt.writeLong(excerpt.index());
+            excerpt.finish();
+        }
+        assertTrue(writer.lastCycle() > 2);
+        assertEquals(0, readerChronicle.lastCycle());
+        for (int i = 1; i <= runs; i++) {
+            assertTrue(reader.nextIndex());
+            assertEquals(i, reader.readLong());
+            assertEquals(reader.index(), reader.readLong());
+            reader.finish();
+        }
+        assertFalse(reader.nextIndex());
+        assertEquals(writer.lastCycle(), readerChronicle.lastCycle());
+        assertEquals(runs, readerChronicle.size());
+        readerChronicle.close();
+        writer.close();
+    }
+
+    @Test
+    public void testRetention() throws IOException, InterruptedException {
+        String basePath = cleanDir("rolling-retention");
+        RollingIndexedChronicle chronicle = new RollingIndexedChronicle(basePath, 12, 0, 16 * 1024);
+        Excerpt excerpt = chronicle.createExcerpt();
+        int runs = 10000;
+        for (int i = 1; i <= runs; i++) {
+            excerpt.startExcerpt(16);
+            excerpt.writeLong(i);
+            excerpt.writeLong(excerpt.index());
+            excerpt.finish();
+        }
+        int lastCycle = chronicle.lastCycle();
+
+        // keep at least 2500 excerpts.
+        int first = chronicle.retainCycles(2500, 0, 0);
+        assertTrue(first > 0);
+        assertEquals(first, chronicle.firstCycle());
+        assertFalse(new File(chronicle.cyclePath(first - 1) + ".data").exists());
+        Excerpt reader = chronicle.createExcerpt();
+        int count = 0, firstCycleCount = 0;
+        while (reader.nextIndex()) {
+            count++;
+            if (RollingIndexedChronicle.cycle(reader.index()) == first)
+                firstCycleCount++;
+            // the indexes of the excerpts kept are unchanged.
+            assertEquals(reader.index(), reader.readLong(8));
+            reader.finish();
+        }
+        assertTrue(count >= 2500);
+        assertTrue(count - firstCycleCount < 2500);
+
+        // keep at most 64 KB.
+        chronicle.retainCycles(0, 64 * 1024, 0);
+        assertTrue(chronicle.sizeInBytes() <= 64 * 1024);
+        assertTrue(chronicle.firstCycle() < lastCycle);
+
+        // delete in the background the cycles last written over an hour ago.
+        for (int c = chronicle.firstCycle(); c < lastCycle; c++)
+            for (String suffix : new String[]{".index", ".data"})
+                assertTrue(new File(chronicle.cyclePath(c) + suffix).setLastModified(System.currentTimeMillis() - 2 * 3600 * 1000L));
+        chronicle.retention(0, 0, 3600 * 1000L, 10);
+        for (int i = 0; i < 100 && chronicle.firstCycle() < lastCycle; i++)
+            Thread.sleep(10);
+        assertEquals(lastCycle, chronicle.firstCycle());
+
+        assertTrue(reader.index(RollingIndexedChronicle.index(lastCycle, 3)));
+        assertEquals(RollingIndexedChronicle.index(lastCycle, 3), reader.readLong(8));
+        reader.finish();
+        chronicle.close();
+    }
+
+    @Test
+    public void testRetentionWhileWriting() throws IOException {
+        String basePath = cleanDir("rolling-retention-writing");
+        RollingIndexedChronicle chronicle = new RollingIndexedChronicle(basePath, 12, 0, 16 * 1024);
+        chronicle.retention(2000, 0, 0, 1);
+        Excerpt excerpt = chronicle.createExcerpt();
+        int runs = 50000;
+        for (int i = 1; i <= runs; i++) {
+            excerpt.startExcerpt(16);
+            excerpt.writeLong(i);
+            excerpt.writeLong(excerpt.index());
+            excerpt.finish();
+        }
+        chronicle.retention(0, 0, 0, 0);
+        assertTrue(chronicle.firstCycle() > 0);
+
+        // the excerpts kept are all there.
+        Excerpt reader = chronicle.createExcerpt();
+        long last = 0, count = 0;
+        while (reader.nextIndex()) {
+            long value = reader.readLong();
+            if (last > 0)
+                assertEquals(last + 1, value);
+            assertEquals(reader.index(), reader.readLong());
+            reader.finish();
+            last = value;
+            count++;
+        }
+        assertEquals(runs, last);
+        assertEquals(count, chronicle.size());
+        assertTrue(count >= 2000);
+        chronicle.close();
+    }
+
+    @Test
+    public void testDeleteCycleInUse() throws IOException {
+        String basePath = cleanDir("rolling-in-use");
+        RollingIndexedChronicle chronicle = new RollingIndexedChronicle(basePath, 12, 0, 16 * 1024);
+        Excerpt excerpt = chronicle.createExcerpt();
+        for (int i = 1; i <= 5000; i++) {
+            excerpt.startExcerpt(16);
+            excerpt.writeLong(i);
+            excerpt.writeLong(excerpt.index());
+            excerpt.finish();
+        }
+        int lastCycle = chronicle.lastCycle();
+        assertTrue(lastCycle > 1);
+
+        // a reader still in cycle 0 keeps it mapped.
+        Excerpt reader = chronicle.createExcerpt();
+        assertTrue(reader.index(RollingIndexedChronicle.index(0, 10)));
+        chronicle.deleteCyclesBefore(lastCycle);
+        assertEquals(lastCycle, chronicle.firstCycle());
+        assertTrue(new File(chronicle.cyclePath(0) + ".data").exists());
+        assertFalse(new File(chronicle.cyclePath(1) + ".data").exists());
+        assertEquals(11, reader.readLong());
+        assertEquals(RollingIndexedChronicle.index(0, 10), reader.readLong());
+        reader.finish();
+        assertTrue(reader.nextIndex());
+        assertEquals(RollingIndexedChronicle.index(0, 11), reader.index());
+
+        // deleted once the reader moves on.
+        assertFalse(reader.index(RollingIndexedChronicle.index(1, 0)));
+        assertTrue(reader.index(RollingIndexedChronicle.index(lastCycle, 0)));
+        assertFalse(new File(chronicle.cyclePath(0) + ".data").exists());
+        assertFalse(new File(chronicle.cyclePath(0) + ".index").exists());
+        assertEquals(RollingIndexedChronicle.index(lastCycle, 0), reader.readLong(8));
+        reader.finish();
+        chronicle.close();
+    }
+}
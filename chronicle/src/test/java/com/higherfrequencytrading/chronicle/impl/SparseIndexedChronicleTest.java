@@ -0,0 +1,141 @@
+/*
+ * Copyright 2013 Peter Lawrey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.higherfrequencytrading.chronicle.impl;
+
+import com.higherfrequencytrading.chronicle.Excerpt;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+
+import static junit.framework.Assert.*;
+
+/**
+ * @author peter.lawrey
+ */
+public class SparseIndexedChronicleTest {
+    @Test
+    public void rewritibleEntries() throws IOException {
+        doRewriteableEntries(false);
+        doRewriteableEntries(true);
+    }
+
+    private static void doRewriteableEntries(boolean useUnsafe) throws IOException {
+        String basePath = IndexedChronicleTest.TMP + File.separator + "deleteme.sict";
+        IndexedChronicle tsc = new SparseIndexedChronicle(basePath, 12);
+        tsc.useUnsafe(useUnsafe);
+        deleteOnExit(basePath);
+
+        tsc.clear();
+        Excerpt excerpt = tsc.createExcerpt();
+
+        int counter = 1;
+        for (int i = 0; i < 1024; i++) {
+            excerpt.startExcerpt(129);
+            for (int j = 0; j < 128; j += 8)
+                excerpt.writeLong(counter++);
+            excerpt.write(-1);
+            excerpt.finish();
+        }
+
+        counter = 1;
+        for (int i = 0; i < 1024; i++) {
+            assertTrue(excerpt.index(i));
+            for (int j = 0; j < 128; j += 8) {
+                long actual = excerpt.readLong();
+                long expected = counter++;
+                if (expected != actual)
+                    assertEquals(expected, actual);
+            }
+            assertEquals(-1, excerpt.readByte());
+            excerpt.finish();
+        }
+        assertFalse(excerpt.index(1024));
+        tsc.close();
+    }
+
+    @Test
+    public void smallerIndexAndRestart() throws IOException {
+        String basePath = IndexedChronicleTest.TMP + File.separator + "deleteme.sict2";
+        deleteOnExit(basePath);
+        IndexedChronicle tsc = new SparseIndexedChronicle(basePath, 12);
+        tsc.clear();
+        Excerpt excerpt = tsc.createExcerpt();
+        for (int i = 1; i <= 10000; i++) {
+            excerpt.startExcerpt(8);
+            excerpt.writeLong(i);
+            excerpt.finish();
+        }
+        tsc.close();
+        // 8 bytes per entry would need 80,000 bytes and 4 bytes per entry 40,000.
+        long indexSize = new File(basePath + ".index").length();
+        assertTrue("indexSize=" + indexSize, indexSize <= 24 * 1024);
+        assertFalse(new File(basePath + ".overflow").exists());
+
+        IndexedChronicle tsc2 = new SparseIndexedChronicle(basePath, 12);
+        assertEquals(10000, tsc2.size());
+        Excerpt excerpt2 = tsc2.createExcerpt();
+        for (int i = 10000; i >= 1; i -= 7) {
+            assertTrue(excerpt2.index(i - 1));
+            assertEquals(i, excerpt2.readLong());
+            excerpt2.finish();
+        }
+        tsc2.close();
+    }
+
+    @Test
+    public void largeExcerpts() throws IOException {
+        String basePath = IndexedChronicleTest.TMP + File.separator + "deleteme.sict3";
+        deleteOnExit(basePath);
+        IndexedChronicle tsc = new SparseIndexedChronicle(basePath, 20);
+        tsc.clear();
+        Excerpt excerpt = tsc.createExcerpt();
+        // every few excerpts is too long for a 2 byte length.
+        for (int i = 0; i < 200; i++) {
+            int capacity = i % 7 == 3 ? 100 * 1024 : 8 + i;
+            excerpt.startExcerpt(capacity);
+            excerpt.writeLong(i + 1);
+            excerpt.position(capacity - 1);
+            excerpt.write(i);
+            excerpt.finish();
+        }
+        tsc.close();
+
+        IndexedChronicle tsc2 = new SparseIndexedChronicle(basePath, 20, ByteOrder.nativeOrder(), false, false, true);
+        assertEquals(200, tsc2.size());
+        Excerpt excerpt2 = tsc2.createExcerpt();
+        for (int i = 199; i >= 0; i--) {
+            assertTrue(excerpt2.index(i));
+            // the space skipped to start a large excerpt in the next data segment is added to the one before it.
+            int capacity = i % 7 == 3 ? 100 * 1024 : 8 + i;
+            assertTrue(excerpt2.capacity() >= capacity);
+            assertEquals(i + 1, excerpt2.readLong());
+            excerpt2.position(capacity - 1);
+            assertEquals((byte) i, excerpt2.readByte());
+            excerpt2.finish();
+        }
+        assertFalse(excerpt2.index(200));
+        tsc2.close();
+    }
+
+    private static void deleteOnExit(String basePath) {
+        new File(basePath + ".data").deleteOnExit();
+        new File(basePath + ".index").deleteOnExit();
+        new File(basePath + ".overflow").deleteOnExit();
+    }
+}
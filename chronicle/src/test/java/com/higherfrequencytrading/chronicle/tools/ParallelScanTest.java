@@ -0,0 +1,98 @@
+/*
+ * Copyright 2013 Peter Lawrey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.higherfrequencytrading.chronicle.tools;
+
+import com.higherfrequencytrading.chronicle.Excerpt;
+import com.higherfrequencytrading.chronicle.impl.IndexedChronicle;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author peter.lawrey
+ */
+public class ParallelScanTest {
+    static final String TMP = System.getProperty("java.io.tmpdir");
+
+    @Test
+    public void testScan() throws IOException, InterruptedException {
+        String basePath = TMP + File.separator + "parallel-scan";
+        ChronicleTools.deleteOnExit(basePath);
+        IndexedChronicle chronicle = new IndexedChronicle(basePath, 16);
+        Excerpt excerpt = chronicle.createExcerpt();
+        int runs = 100000;
+        for (int i = 1; i <= runs; i++) {
+            excerpt.startExcerpt(8);
+            excerpt.writeLong(i);
+            excerpt.finish();
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            long sum = ParallelScan.scan(chronicle, executor, new ParallelScan.ExcerptReducer<Long>() {
+                @Override
+                public Long initial() {
+                    return 0L;
+                }
+
+                @Override
+                public Long accumulate(Long result, Excerpt excerpt) {
+                    return result + excerpt.readLong();
+                }
+
+                @Override
+                public Long combine(Long earlier, Long later) {
+                    return earlier + later;
+                }
+            });
+            assertEquals((long) runs * (runs + 1) / 2, sum);
+
+            // the results are combined in order.
+            List<Long> values = ParallelScan.scan(chronicle, 10, 1010, 7, executor, new ParallelScan.ExcerptReducer<List<Long>>() {
+                @Override
+                public List<Long> initial() {
+                    return new ArrayList<Long>();
+                }
+
+                @Override
+                public List<Long> accumulate(List<Long> result, Excerpt excerpt) {
+                    result.add(excerpt.readLong());
+                    return result;
+                }
+
+                @Override
+                public List<Long> combine(List<Long> earlier, List<Long> later) {
+                    earlier.addAll(later);
+                    return earlier;
+                }
+            });
+            assertEquals(1000, values.size());
+            for (int i = 0; i < values.size(); i++)
+                assertEquals(i + 11, (long) values.get(i));
+        } finally {
+            executor.shutdown();
+            chronicle.close();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2013 Peter Lawrey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.higherfrequencytrading.chronicle.impl;
+
+import com.higherfrequencytrading.chronicle.Excerpt;
+import com.higherfrequencytrading.chronicle.tools.ChronicleTools;
+import com.higherfrequencytrading.testing.Histogram;
+
+import java.io.IOException;
+
+import static com.higherfrequencytrading.chronicle.impl.GlobalSettings.*;
+
+/**
+ * Compares the one way latency and the space used with excerpts starting at different alignments.  The excerpts are
+ * an odd size, so without alignment the fields written often straddle cache lines.  One excerpt is written every
+ * micro-second.
+ * -Dtest.size=10 sets the number of millions of excerpts.
+ *
+ * @author peter.lawrey
+ */
+public class AlignedExcerptLatencyMain {
+    // a timestamp, an int and a byte
+    private static final int LENGTH = 8 + 4 + 1;
+
+    public static void main(String... args) throws IOException, InterruptedException {
+        for (int i = 0; i < 3; i++)
+            for (int alignment : new int[]{1, 8, 16, 64})
+                test(alignment);
+    }
+
+    private static void test(int alignment) throws IOException, InterruptedException {
+        String basePath = BASE_DIR + "aligned";
+        // clear() leaves old index entries which the reader would see.
+        ChronicleTools.deleteOnExit(basePath);
+        IndexedChronicle tsc = new IndexedChronicle(basePath);
+        tsc.useUnsafe(USE_UNSAFE);
+        tsc.excerptAlignment(alignment);
+
+        final Excerpt excerpt = tsc.createExcerpt();
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                // one excerpt per micro-second so the reader keeps up and the latency isn't the time queued.
+                long next = System.nanoTime();
+                for (int i = 0; i < RUNS; i++) {
+                    next += 1000;
+                    while (System.nanoTime() < next) {
+                        /* busy wait */
+                    }
+                    excerpt.startExcerpt(LENGTH);
+                    excerpt.writeLong(System.nanoTime());
+                    excerpt.writeInt(i);
+                    excerpt.writeByte(i);
+                    excerpt.finish();
+                }
+            }
+        });
+        writer.start();
+
+        Excerpt reader = tsc.createExcerpt();
+        Histogram hist = new Histogram(100000, 1);
+        for (int i = 0; i < RUNS; i++) {
+            while (!reader.index(i)) {
+                /* busy wait */
+            }
+            long time = System.nanoTime() - reader.readLong();
+            reader.finish();
+            if (i >= WARMUP)
+                hist.sample(time);
+        }
+        writer.join();
+        long bytes = tsc.getIndexData(tsc.size());
+        tsc.close();
+
+        System.out.printf("alignment: %2d, %.1f bytes per excerpt, the 50/99/99.9%%tile latencies were %,d/%,d/%,d ns%n",
+                alignment, (double) bytes / RUNS, hist.percentile(0.5), hist.percentile(0.99), hist.percentile(0.999));
+    }
+}
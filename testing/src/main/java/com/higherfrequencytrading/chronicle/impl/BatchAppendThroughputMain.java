@@ -0,0 +1,73 @@
+/*
+ * Copyright 2013 Peter Lawrey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.higherfrequencytrading.chronicle.impl;
+
+import com.higherfrequencytrading.chronicle.Excerpt;
+
+import java.io.IOException;
+
+import static com.higherfrequencytrading.chronicle.impl.GlobalSettings.*;
+import static junit.framework.Assert.assertEquals;
+
+/**
+ * Compares appending small excerpts one at a time with appending them in batches of different sizes.
+ * -Dtest.size=10 sets the number of millions of excerpts.
+ *
+ * @author peter.lawrey
+ */
+public class BatchAppendThroughputMain {
+    private static final int LENGTH = 16;
+
+    public static void main(String... args) throws IOException {
+        for (int i = 0; i < 3; i++)
+            for (int batch : new int[]{1, 10, 100, 1000})
+                test(batch);
+    }
+
+    private static void test(int batch) throws IOException {
+        String basePath = BASE_DIR + "batch";
+        deleteOnExit(basePath);
+        IndexedChronicle tsc = new IndexedChronicle(basePath);
+        tsc.useUnsafe(USE_UNSAFE);
+        tsc.clear();
+
+        Excerpt excerpt = tsc.createExcerpt();
+        long start = System.nanoTime();
+        for (int i = 0; i < RUNS; i += batch) {
+            if (batch > 1)
+                excerpt.startBatch();
+            for (int j = i; j < i + batch && j < RUNS; j++) {
+                excerpt.startExcerpt(LENGTH);
+                excerpt.writeLong(j + 1);
+                excerpt.writeLong(j);
+                excerpt.finish();
+            }
+            excerpt.finishBatch();
+        }
+        long mid = System.nanoTime();
+        Excerpt excerpt2 = tsc.createExcerpt();
+        for (int i = 0; i < RUNS; i++) {
+            excerpt2.index(i);
+            long n = excerpt2.readLong();
+            if (n != i + 1)
+                assertEquals(i + 1, n);
+            excerpt2.finish();
+        }
+        tsc.close();
+        System.out.printf("batch: %,d, write %.1f M/s%n", batch, RUNS * 1e3 / (mid - start));
+    }
+}
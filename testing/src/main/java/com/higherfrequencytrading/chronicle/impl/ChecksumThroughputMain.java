@@ -0,0 +1,75 @@
+/*
+ * Copyright 2013 Peter Lawrey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.higherfrequencytrading.chronicle.impl;
+
+import com.higherfrequencytrading.chronicle.Excerpt;
+
+import java.io.IOException;
+
+import static com.higherfrequencytrading.chronicle.impl.GlobalSettings.*;
+import static junit.framework.Assert.assertEquals;
+
+/**
+ * Compares writing and reading excerpts without checksums, with checksums and with checksums verified on every read.
+ * -Dtest.size=10 -Dtest.length=64 sets the number of millions of excerpts and their size.
+ *
+ * @author peter.lawrey
+ */
+public class ChecksumThroughputMain {
+    private static final int LENGTH = Integer.getInteger("test.length", 64);
+
+    public static void main(String... args) throws IOException {
+        for (int i = 0; i < 3; i++) {
+            test(false, ChecksumVerification.NONE);
+            test(true, ChecksumVerification.NONE);
+            test(true, ChecksumVerification.ALWAYS);
+        }
+    }
+
+    private static void test(boolean checksums, ChecksumVerification verification) throws IOException {
+        String basePath = BASE_DIR + "checksum";
+        deleteOnExit(basePath);
+        IndexedChronicle tsc = new IndexedChronicle(basePath);
+        tsc.useUnsafe(USE_UNSAFE);
+        tsc.checksums(checksums);
+        tsc.checksumVerification(verification);
+        tsc.clear();
+
+        Excerpt excerpt = tsc.createExcerpt();
+        long start = System.nanoTime();
+        for (int i = 0; i < RUNS; i++) {
+            excerpt.startExcerpt(LENGTH);
+            excerpt.writeLong(i + 1);
+            for (int j = 8; j < LENGTH; j += 8)
+                excerpt.writeLong(j);
+            excerpt.finish();
+        }
+        long mid = System.nanoTime();
+        Excerpt excerpt2 = tsc.createExcerpt();
+        for (int i = 0; i < RUNS; i++) {
+            excerpt2.index(i);
+            long n = excerpt2.readLong();
+            if (n != i + 1)
+                assertEquals(i + 1, n);
+            excerpt2.finish();
+        }
+        long end = System.nanoTime();
+        tsc.close();
+        System.out.printf("checksums: %s, verification: %s, write %.1f M/s, read %.1f M/s%n",
+                checksums, verification, RUNS * 1e3 / (mid - start), RUNS * 1e3 / (end - mid));
+    }
+}
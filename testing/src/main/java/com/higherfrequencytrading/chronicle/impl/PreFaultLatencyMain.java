@@ -0,0 +1,80 @@
+/*
+ * Copyright 2013 Peter Lawrey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.higherfrequencytrading.chronicle.impl;
+
+import com.higherfrequencytrading.chronicle.Excerpt;
+import com.higherfrequencytrading.chronicle.tools.ChronicleTools;
+import com.higherfrequencytrading.testing.Histogram;
+
+import java.io.IOException;
+
+import static com.higherfrequencytrading.chronicle.impl.GlobalSettings.*;
+
+/**
+ * Compares the time to write an excerpt to a fresh file with and without the pages ahead of the writer pre-faulted in
+ * the background.  Without it, the writer takes a page fault, and a block allocation, every 4 KB.
+ * -Dtest.size=10 sets the number of millions of excerpts.
+ * <p/>
+ * The run alternates the two settings three times, compare the 99.9%tile of each.  From the project directory after
+ * mvn compile
+ * <pre>
+ * java -Dtest.size=1 -cp testing/target/classes:chronicle/target/classes com.higherfrequencytrading.chronicle.impl.PreFaultLatencyMain
+ * </pre>
+ *
+ * @author peter.lawrey
+ */
+public class PreFaultLatencyMain {
+    private static final int LENGTH = 64;
+
+    public static void main(String... args) throws IOException, InterruptedException {
+        for (int i = 0; i < 3; i++)
+            for (int window : new int[]{0, 4 << 20})
+                test(window);
+    }
+
+    private static void test(int window) throws IOException, InterruptedException {
+        String basePath = BASE_DIR + "preFault";
+        // a fresh file each time so the pages haven't been allocated.
+        ChronicleTools.deleteOnExit(basePath);
+        IndexedChronicle tsc = new IndexedChronicle(basePath);
+        tsc.useUnsafe(USE_UNSAFE);
+        tsc.preFaultWindow(window);
+
+        Excerpt excerpt = tsc.createExcerpt();
+        Histogram hist = new Histogram(100000, 1);
+        long next = System.nanoTime();
+        for (int i = 0; i < RUNS; i++) {
+            // one excerpt per micro-second so the background thread can keep ahead.
+            next += 1000;
+            while (System.nanoTime() < next) {
+                /* busy wait */
+            }
+            long start = System.nanoTime();
+            excerpt.startExcerpt(LENGTH);
+            for (int j = 0; j < LENGTH; j += 8)
+                excerpt.writeLong(start + j);
+            excerpt.finish();
+            long time = System.nanoTime() - start;
+            if (i >= WARMUP)
+                hist.sample(time);
+        }
+        tsc.close();
+
+        System.out.printf("preFaultWindow: %,d, the 50/99/99.9/99.99%%tile write latencies were %,d/%,d/%,d/%,d ns%n",
+                window, hist.percentile(0.5), hist.percentile(0.99), hist.percentile(0.999), hist.percentile(0.9999));
+    }
+}
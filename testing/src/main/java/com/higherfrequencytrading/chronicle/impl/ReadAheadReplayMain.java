@@ -0,0 +1,88 @@
+/*
+ * Copyright 2013 Peter Lawrey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.higherfrequencytrading.chronicle.impl;
+
+import com.higherfrequencytrading.chronicle.Excerpt;
+
+import java.io.IOException;
+
+import static com.higherfrequencytrading.chronicle.impl.GlobalSettings.*;
+import static junit.framework.Assert.assertEquals;
+
+/**
+ * Replays a Chronicle from the start with and without read ahead.  To replay from a cold page cache, write it once,
+ * then drop the page cache before each replay e.g. with
+ * <pre>
+ * java ReadAheadReplayMain write
+ * sync; echo 3 > /proc/sys/vm/drop_caches; java ReadAheadReplayMain read 0
+ * sync; echo 3 > /proc/sys/vm/drop_caches; java ReadAheadReplayMain read 16
+ * </pre>
+ * The last argument is the MB to read ahead.  -Dtest.size=10 sets the number of millions of excerpts.
+ *
+ * @author peter.lawrey
+ */
+public class ReadAheadReplayMain {
+    private static final int LENGTH = 64;
+
+    public static void main(String... args) throws IOException {
+        String basePath = BASE_DIR + "replay";
+        if (args.length > 0 && args[0].equals("write")) {
+            write(basePath);
+        } else {
+            int readAheadMB = args.length > 1 ? Integer.parseInt(args[1]) : 0;
+            if (args.length == 0) {
+                // everything is in the page cache, so this only shows the overhead.
+                deleteOnExit(basePath);
+                write(basePath);
+            }
+            read(basePath, readAheadMB);
+        }
+    }
+
+    private static void write(String basePath) throws IOException {
+        IndexedChronicle tsc = new IndexedChronicle(basePath);
+        tsc.useUnsafe(USE_UNSAFE);
+        tsc.clear();
+        Excerpt excerpt = tsc.createExcerpt();
+        for (int i = 0; i < RUNS; i++) {
+            excerpt.startExcerpt(LENGTH);
+            excerpt.writeLong(i + 1);
+            excerpt.position(LENGTH);
+            excerpt.finish();
+        }
+        tsc.close();
+    }
+
+    private static void read(String basePath, int readAheadMB) throws IOException {
+        IndexedChronicle tsc = new IndexedChronicle(basePath);
+        tsc.useUnsafe(USE_UNSAFE);
+        Excerpt excerpt = tsc.createExcerpt();
+        excerpt.readAhead(readAheadMB << 20);
+        long start = System.nanoTime();
+        long count = 0;
+        while (excerpt.nextIndex()) {
+            long n = excerpt.readLong();
+            if (n != ++count)
+                assertEquals(count, n);
+            excerpt.finish();
+        }
+        long time = System.nanoTime() - start;
+        tsc.close();
+        System.out.printf("read ahead: %,d MB, read %,d excerpts at %.1f M/s, %.1f MB/s%n",
+                readAheadMB, count, count * 1e3 / time, count * LENGTH * 1e3 / time);
+    }
+}
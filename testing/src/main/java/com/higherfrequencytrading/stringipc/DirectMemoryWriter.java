@@ -33,12 +33,14 @@ public class DirectMemoryWriter {
     public DirectMemoryWriter() throws IOException {
         tsc = new IndexedChronicle(basePath, DirectMemoryReader.DATA_BIT_SIZE_HINT);
         tsc.useUnsafe(DirectMemoryReader.USE_UNSAFE);
+        tsc.autoGrowExcerpts(true);
 
         excerpt = tsc.createExcerpt();
     }
 
     public void write(CharSequence s) {
-        excerpt.startExcerpt(s.length() * 3);
+        // writeUTF grows the excerpt if the string is not ASCII.
+        excerpt.startExcerpt(s.length() + 1);
         excerpt.writeUTF(s);
         excerpt.finish();
     }